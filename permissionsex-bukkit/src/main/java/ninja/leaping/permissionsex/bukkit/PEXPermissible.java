@@ -23,8 +23,10 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.logging.PermissionProfiler;
 import ninja.leaping.permissionsex.subject.CalculatedSubject;
 import ninja.leaping.permissionsex.util.NodeTree;
+import ninja.leaping.permissionsex.util.PermissionMemo;
 import org.bukkit.entity.Player;
 import org.bukkit.permissions.Permissible;
 import org.bukkit.permissions.PermissibleBase;
@@ -40,13 +42,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.StreamSupport;
 
 import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
 import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
-import static ninja.leaping.permissionsex.bukkit.BukkitTranslations.t;
 
 /**
  * Implementation of Permissible using PEX for data
@@ -168,19 +170,28 @@ public class PEXPermissible extends PermissibleBase {
     }
 
     private int getPermissionValue(Set<Map.Entry<String, String>> contexts, String permission) {
-        int ret = getPermissionValue0(subj.getPermissions(contexts), permission);
-
-        if (ret == 0) {
-            for (Metapermission mPerm : METAPERMISSIONS) {
-                Matcher match = mPerm.matchAgainst.matcher(permission);
-                if (match.matches() && mPerm.isMatch(match, subj, contexts)) {
-                    ret = 1;
+        // Results depend on the subject's baked data, which the memo is discarded with, and the registered permission tree
+        final PermissionMemo memo = subj.getPermissionMemo(contexts);
+        final long stamp = plugin.getPermissionList().getModificationCount();
+        int ret = memo.get(permission, stamp);
+        if (ret == PermissionMemo.MISSING) {
+            ret = getPermissionValue0(subj.getPermissions(contexts), permission);
+
+            if (ret == 0) {
+                for (Metapermission mPerm : METAPERMISSIONS) {
+                    Matcher match = mPerm.matchAgainst.matcher(permission);
+                    if (match.matches() && mPerm.isMatch(match, subj, contexts)) {
+                        ret = 1;
+                    }
                 }
             }
+            memo.put(permission, stamp, ret);
         }
 
-        if (pex.hasDebugMode()) {
-            pex.getLogger().info(t("Checked permission %s for player %s in contexts %s: %s", permission, player.getName(), contexts, ret));
+        pex.getTraceRecorder().recordPermission(subj.getIdentifier(), contexts, permission, ret);
+        final PermissionProfiler profiler = pex.getProfiler();
+        if (profiler != null) {
+            profiler.sample(permission, ret);
         }
         return ret;
     }
@@ -237,14 +248,19 @@ public class PEXPermissible extends PermissibleBase {
     }
 
     public boolean removeAttachmentInternal(final PEXPermissionAttachment attach) {
-        this.subj.transientData().update(input -> input.removeParent(PermissionsEx.GLOBAL_CONTEXT, PEXPermissionAttachment.ATTACHMENT_TYPE, attach.getIdentifier()))
+        detach(attach);
+        return true;
+    }
+
+    private CompletableFuture<Void> detach(final PEXPermissionAttachment attach) {
+        return this.subj.transientData().update(input -> input.removeParent(PermissionsEx.GLOBAL_CONTEXT, PEXPermissionAttachment.ATTACHMENT_TYPE, attach.getIdentifier()))
                 .thenRun(() -> {
+                    this.pex.closeTransientSession(PEXPermissionAttachment.ATTACHMENT_TYPE, attach.getIdentifier());
                     PermissionRemovedExecutor exec = attach.getRemovalCallback();
                     if (exec != null) {
                         exec.attachmentRemoved(attach);
                     }
                 });
-        return true;
     }
 
     @Override
@@ -256,11 +272,17 @@ public class PEXPermissible extends PermissibleBase {
         this.attachments.remove(attachment);
     }
 
-    void removeAllAttachments() {
-        for (PEXPermissionAttachment attach : this.attachments) {
-            removeAttachmentInternal(attach);
-        }
+    /**
+     * Remove every attachment from this permissible.
+     *
+     * @return A future completing once every attachment has been removed from the player's transient data
+     */
+    CompletableFuture<Void> removeAllAttachments() {
+        final CompletableFuture<?>[] removals = this.attachments.stream()
+                .map(this::detach)
+                .toArray(CompletableFuture[]::new);
         this.attachments.clear();
+        return CompletableFuture.allOf(removals);
     }
 
     @Override
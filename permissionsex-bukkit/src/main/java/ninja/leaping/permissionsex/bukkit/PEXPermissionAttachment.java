@@ -48,6 +48,7 @@ public class PEXPermissionAttachment extends PermissionAttachment {
         } catch (ExecutionException e) {
             throw new ExceptionInInitializerError(e);
         }
+        perm.getManager().openTransientSession(ATTACHMENT_TYPE, this.identifier); // Only once nothing can fail, so the session is always closed
     }
 
     public String getIdentifier() {
@@ -68,7 +68,7 @@ public class PEXVault extends Permission {
 
     private CalculatedSubject getGroup(String name) {
         try {
-            return this.plugin.getManager().getCalculatedSubject(SUBJECTS_GROUP, Preconditions.checkNotNull(name, "name"));
+            return this.plugin.getManager().lookupCalculatedSubject(SUBJECTS_GROUP, Preconditions.checkNotNull(name, "name"));
         } catch (PermissionsLoadingException e) {
             throw new RuntimeException(e);
         }
@@ -76,7 +76,7 @@ public class PEXVault extends Permission {
 
     private CalculatedSubject getSubject(OfflinePlayer player) {
         try {
-            return this.plugin.getManager().getCalculatedSubject(SUBJECTS_USER, Preconditions.checkNotNull(player, "player").getUniqueId().toString());
+            return this.plugin.getManager().lookupCalculatedSubject(SUBJECTS_USER, Preconditions.checkNotNull(player, "player").getUniqueId().toString());
         } catch (PermissionsLoadingException e) {
             throw new RuntimeException(e);
         }
@@ -105,6 +105,7 @@ public class PEXVault extends Permission {
 
     @Override
     public boolean playerHas(String world, OfflinePlayer player, String permission) {
+        this.plugin.warnIfLoadBlocks(player);
         return getSubject(player).getPermission(contextsFrom(world), permission) > 0;
     }
 
@@ -150,6 +151,7 @@ public class PEXVault extends Permission {
 
     @Override
     public boolean playerInGroup(String world, OfflinePlayer player, String group) {
+        this.plugin.warnIfLoadBlocks(player);
         return getSubject(player).getParents(contextsFrom(world)).contains(Maps.immutableEntry(SUBJECTS_GROUP, group));
     }
 
@@ -165,6 +167,7 @@ public class PEXVault extends Permission {
 
     @Override
     public String[] getPlayerGroups(String world, OfflinePlayer player) {
+        this.plugin.warnIfLoadBlocks(player);
         return getSubject(player).getParents(contextsFrom(world)).stream()
                 .filter(parent -> parent.getKey().equals(SUBJECTS_GROUP))
                 .map(Map.Entry::getValue)
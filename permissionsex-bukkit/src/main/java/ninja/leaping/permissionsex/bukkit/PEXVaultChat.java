@@ -54,7 +54,7 @@ public class PEXVaultChat extends Chat {
     @Override
     public String getGroupInfoString(final String world, String name, final String key, String defaultValue) {
         try {
-            return plugin.getManager().getCalculatedSubject(SUBJECTS_GROUP, name).getOption(contextsFrom(world), key).orElse(defaultValue);
+            return plugin.getManager().lookupCalculatedSubject(SUBJECTS_GROUP, name).getOption(contextsFrom(world), key).orElse(defaultValue);
         } catch (PermissionsLoadingException e) {
             return defaultValue;
         }
@@ -63,7 +63,7 @@ public class PEXVaultChat extends Chat {
     @Override
     public void setGroupInfoString(final String world, String name, final String key, final String value) {
         try {
-            plugin.getManager().getCalculatedSubject(SUBJECTS_GROUP, name).data().update(input -> input.setOption(contextsFrom(world), key, value));
+            plugin.getManager().lookupCalculatedSubject(SUBJECTS_GROUP, name).data().update(input -> input.setOption(contextsFrom(world), key, value));
         } catch (PermissionsLoadingException e) {
             return; // TODO: Log exception?
         }
@@ -72,8 +72,9 @@ public class PEXVaultChat extends Chat {
 
     @Override
     public String getPlayerInfoString(String world, OfflinePlayer player, String node, String defaultValue) {
+        plugin.warnIfLoadBlocks(player);
         try {
-            return plugin.getManager().getCalculatedSubject(SUBJECTS_USER, player.getUniqueId().toString()).getOption(contextsFrom(world), node).orElse(defaultValue);
+            return plugin.getManager().lookupCalculatedSubject(SUBJECTS_USER, player.getUniqueId().toString()).getOption(contextsFrom(world), node).orElse(defaultValue);
         } catch (PermissionsLoadingException e) {
             return defaultValue;
         }
@@ -82,7 +83,7 @@ public class PEXVaultChat extends Chat {
     @Override
     public void setPlayerInfoString(final String world, OfflinePlayer player, final String node, final String value) {
         try {
-            plugin.getManager().getCalculatedSubject(SUBJECTS_USER, player.getUniqueId().toString()).data().update(input -> input.setOption(contextsFrom(world), node, value));
+            plugin.getManager().lookupCalculatedSubject(SUBJECTS_USER, player.getUniqueId().toString()).data().update(input -> input.setOption(contextsFrom(world), node, value));
         } catch (PermissionsLoadingException e) {
             return; // TODO: Log exception?
         }
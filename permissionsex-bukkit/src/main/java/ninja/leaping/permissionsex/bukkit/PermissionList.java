@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author zml2008
@@ -45,6 +46,10 @@ public class PermissionList extends HashMap<String, Permission> {
      */
     private final Multimap<String, Map.Entry<String, Boolean>> childParentMapping = Multimaps.synchronizedMultimap(HashMultimap.<String, Map.Entry<String, Boolean>>create());
     private final PermissionsExPlugin plugin;
+    /**
+     * Incremented whenever the child-parent mapping changes, so results calculated from it can be checked for staleness
+     */
+    private final AtomicLong modificationCount = new AtomicLong();
 
     public PermissionList(PermissionsExPlugin plugin) {
         super();
@@ -66,6 +71,7 @@ public class PermissionList extends HashMap<String, Permission> {
     }
 
     private void removeAllChildren(String perm) {
+        modificationCount.incrementAndGet();
         for (Iterator<Map.Entry<String, Map.Entry<String, Boolean>>> it = childParentMapping.entries().iterator(); it.hasNext(); ) {
             if (it.next().getValue().getKey().equals(perm)) {
                 it.remove();
@@ -93,6 +99,7 @@ public class PermissionList extends HashMap<String, Permission> {
         }
 
         private void removeFromMapping(String child) {
+            modificationCount.incrementAndGet();
             for (Iterator<Map.Entry<String, Boolean>> it = childParentMapping.get(child).iterator(); it.hasNext(); ) {
                 if (it.next().getKey().equals(perm.getName())) {
                     it.remove();
@@ -104,6 +111,7 @@ public class PermissionList extends HashMap<String, Permission> {
         public Boolean put(String perm, Boolean val) {
             //removeFromMapping(perm);
             childParentMapping.put(perm, new SimpleEntry<>(this.perm.getName(), val));
+            modificationCount.incrementAndGet();
             return super.put(perm, val);
         }
 
@@ -131,6 +139,7 @@ public class PermissionList extends HashMap<String, Permission> {
         for (Map.Entry<String, Boolean> ent : v.getChildren().entrySet()) {
             childParentMapping.put(ent.getKey(), new SimpleEntry<>(v.getName(), ent.getValue()));
         }
+        modificationCount.incrementAndGet();
         FieldReplacer<Permission, Map> repl = getFieldReplacer(v);
         repl.set(v, new NotifyingChildrenMap(v));
         if (v.getDefault() == PermissionDefault.TRUE || v.getDefault() == PermissionDefault.FALSE) {
@@ -157,9 +166,19 @@ public class PermissionList extends HashMap<String, Permission> {
     @Override
     public void clear() {
         childParentMapping.clear();
+        modificationCount.incrementAndGet();
         super.clear();
     }
 
+    /**
+     * Get the number of times the parents of any permission have changed.
+     *
+     * @return The modification count
+     */
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+
     public Collection<Map.Entry<String, Boolean>> getParents(String permission) {
         return ImmutableSet.copyOf(childParentMapping.get(permission.toLowerCase()));
     }
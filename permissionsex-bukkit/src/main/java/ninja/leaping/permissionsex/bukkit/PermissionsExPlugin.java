@@ -16,6 +16,8 @@
  */
 package ninja.leaping.permissionsex.bukkit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import net.milkbowl.vault.chat.Chat;
 import net.milkbowl.vault.permission.Permission;
@@ -49,8 +51,10 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static ninja.leaping.permissionsex.bukkit.CraftBukkitInterface.getCBClassName;
 import static ninja.leaping.permissionsex.bukkit.BukkitTranslations.t;
@@ -76,6 +80,11 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
     // Permissions subscriptions handling
     private PEXPermissionSubscriptionMap subscriptionHandler;
     private volatile boolean enabled;
+    // Players a blocking load was recently warned about, so repeated lookups of the same offline player don't flood the log
+    private final Cache<String, Boolean> warnedBlockingLoads = CacheBuilder.newBuilder()
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .maximumSize(512)
+            .build();
 
     /**
      * Because of Bukkit's special logging fun, we have to get an slf4j wrapper using specifically the logger that Bukkit provides us...
@@ -171,6 +180,8 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
     @EventHandler
     public void onPlayerJoin(final PlayerJoinEvent event) {
         final String identifier = event.getPlayer().getUniqueId().toString();
+        getManager().setOnline(PermissionsEx.SUBJECTS_USER, identifier, true);
+        getManager().openTransientSession(PermissionsEx.SUBJECTS_USER, identifier);
         if (getUserSubjects().isRegistered(identifier)) {
             getUserSubjects().update(identifier, input -> {
                 if (!event.getPlayer().getName().equals(input.getOptions(PermissionsEx.GLOBAL_CONTEXT).get("name"))) {
@@ -185,8 +196,13 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
-        uninjectPermissible(event.getPlayer());
-        getManager().uncache(PermissionsEx.SUBJECTS_USER, event.getPlayer().getUniqueId().toString());
+        final String identifier = event.getPlayer().getUniqueId().toString();
+        final PermissionsEx manager = getManager();
+        final CompletableFuture<Void> detached = uninjectPermissible(event.getPlayer());
+        manager.setOnline(PermissionsEx.SUBJECTS_USER, identifier, false);
+        // Attachments are removed from the player's transient data asynchronously, so only discard it once they are gone
+        detached.whenComplete((none, err) -> manager.closeTransientSession(PermissionsEx.SUBJECTS_USER, identifier));
+        manager.uncacheAfterGracePeriod(PermissionsEx.SUBJECTS_USER, identifier);
     }
 
     public PermissionList getPermissionList() {
@@ -201,6 +217,23 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
         return getManager().getSubjects(PermissionsEx.SUBJECTS_USER);
     }
 
+    /**
+     * Warn when data for a player is about to be loaded from the backend on the main thread.
+     * The lookup still blocks until the data is loaded, so that callers get the player's actual data.
+     * Each player is warned about at most once every five minutes.
+     *
+     * @param player The player whose data is being looked up
+     */
+    void warnIfLoadBlocks(OfflinePlayer player) {
+        if (player.isOnline() || !getServer().isPrimaryThread()) {
+            return;
+        }
+        final String identifier = player.getUniqueId().toString();
+        if (!getUserSubjects().getIfPresent(identifier).isPresent() && warnedBlockingLoads.asMap().putIfAbsent(identifier, true) == null) {
+            logger.warn(t("Data for offline player %s/%s was requested on the main thread before being loaded, the server will wait for it to load", player.getName(), identifier));
+        }
+    }
+
     public SubjectCache getGroupSubjects() {
         return getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
     }
@@ -239,16 +272,24 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
     }
 
     private void injectAllPermissibles() {
-        getServer().getOnlinePlayers().forEach(this::injectPermissible);
+        getServer().getOnlinePlayers().forEach(player -> {
+            getManager().setOnline(PermissionsEx.SUBJECTS_USER, player.getUniqueId().toString(), true);
+            getManager().openTransientSession(PermissionsEx.SUBJECTS_USER, player.getUniqueId().toString());
+            injectPermissible(player);
+        });
     }
 
-    private void uninjectPermissible(Player player) {
+    private CompletableFuture<Void> uninjectPermissible(Player player) {
+        CompletableFuture<Void> detached = CompletableFuture.completedFuture(null);
         try {
             boolean success = false;
             for (PermissibleInjector injector : INJECTORS) {
                 if (injector.isApplicable(player)) {
                     Permissible pexPerm = injector.getPermissible(player);
                     if (pexPerm instanceof PEXPermissible) {
+                        if (getManager() != null) {
+                            detached = ((PEXPermissible) pexPerm).removeAllAttachments(); // Releases the attachments' transient data
+                        }
                         if (injector.inject(player, ((PEXPermissible) pexPerm).getPreviousPermissible()) != null) {
                             success = true;
                             break;
@@ -268,6 +309,7 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
         } catch (Throwable e) {
             e.printStackTrace();
         }
+        return detached;
     }
 
     private void uninjectAllPermissibles() {
@@ -25,30 +25,42 @@ import com.google.common.collect.Maps;
 import com.sk89q.squirrelid.resolver.HttpRepositoryService;
 import com.sk89q.squirrelid.resolver.ProfileService;
 import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.WriteTrackingDataStore;
 import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
 import ninja.leaping.permissionsex.command.PermissionsExCommands;
 import ninja.leaping.permissionsex.command.RankingCommands;
 import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.data.CacheAdmission;
+import ninja.leaping.permissionsex.data.CacheBudget;
 import ninja.leaping.permissionsex.data.CacheListenerHolder;
 import ninja.leaping.permissionsex.data.Caching;
 import ninja.leaping.permissionsex.exception.PEBKACException;
+import ninja.leaping.permissionsex.logging.PermissionProfiler;
+import ninja.leaping.permissionsex.logging.TraceRecorder;
 import ninja.leaping.permissionsex.logging.TranslatableLogger;
 import ninja.leaping.permissionsex.subject.CalculatedSubject;
 import ninja.leaping.permissionsex.data.ContextInheritance;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
 import ninja.leaping.permissionsex.data.RankLadderCache;
+import ninja.leaping.permissionsex.data.SizeEstimates;
 import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.data.Transaction;
 import ninja.leaping.permissionsex.subject.SubjectDataBaker;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.util.MemoryPressureMonitor;
+import ninja.leaping.permissionsex.util.TimerWheel;
 import ninja.leaping.permissionsex.util.Util;
 import ninja.leaping.permissionsex.util.command.CommandSpec;
 
+import javax.annotation.Nullable;
 import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -57,6 +69,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
@@ -68,6 +85,9 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     public static final String SUBJECTS_GROUP = "group";
     public static final String SUBJECTS_DEFAULTS = "default";
     public static final ImmutableSet<Map.Entry<String, String>> GLOBAL_CONTEXT = ImmutableSet.of();
+    private static final int CALCULATED_SUBJECT_SIZE = 256;
+    private static final int PROFILER_REPORT_SIZE = 10;
+    private static final int QUIT_WHEEL_SIZE = 512;
 
     private final Map<String, Function<String, String>> nameTransformerMap = new ConcurrentHashMap<>();
     private final TranslatableLogger logger;
@@ -76,34 +96,61 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     private volatile boolean debug;
 
     private final AtomicReference<State> state = new AtomicReference<>();
-    private final ConcurrentMap<String, SubjectCache> subjectCaches = new ConcurrentHashMap<>(), transientSubjectCaches = new ConcurrentHashMap<>();
-    private RankLadderCache rankLadderCache;
-    private final LoadingCache<Map.Entry<String, String>, CalculatedSubject> calculatedSubjects = CacheBuilder.newBuilder().maximumSize(512).build(new CacheLoader<Map.Entry<String, String>, CalculatedSubject>() {
-        @Override
-        public CalculatedSubject load(Map.Entry<String, String> key) throws Exception {
-            return new CalculatedSubject(SubjectDataBaker.inheritance(), key, PermissionsEx.this);
-        }
-    });
+    private final ConcurrentMap<String, SubjectCache> transientSubjectCaches = new ConcurrentHashMap<>();
+    private final CacheBudget cacheBudget;
+    private final LoadingCache<Map.Entry<String, String>, CalculatedSubject> calculatedSubjects;
+    private final CacheAdmission<Map.Entry<String, String>> calculatedSubjectAdmission;
     private volatile ContextInheritance cachedInheritance;
     private final CacheListenerHolder<Boolean, ContextInheritance> cachedInheritanceListeners = new CacheListenerHolder<>();
+    private final AtomicLong bakeGeneration = new AtomicLong();
+    private final Set<Map.Entry<String, String>> onlineSubjects = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Map.Entry<String, String>, Integer> transientSessions = new ConcurrentHashMap<>();
+    private volatile MemoryPressureMonitor memoryMonitor;
+    private final TraceRecorder traceRecorder = new TraceRecorder();
+    private volatile PermissionProfiler profiler;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> profilerReport;
+    private final TimerWheel<Map.Entry<String, String>> quitExpirations = new TimerWheel<>(1, TimeUnit.SECONDS, QUIT_WHEEL_SIZE);
+    private ScheduledFuture<?> expirationTick;
 
+    /**
+     * Everything that is replaced on reload. A reload builds a complete new state before swapping it in,
+     * so requests are always served by a consistent configuration, data store and set of caches.
+     */
     private static class State {
         private final PermissionsExConfiguration config;
-        private final DataStore activeDataStore;
+        private final WriteTrackingDataStore activeDataStore;
+        private final ConcurrentMap<String, SubjectCache> subjectCaches;
+        private final RankLadderCache rankLadderCache;
 
-        private State(PermissionsExConfiguration config, DataStore activeDataStore) {
+        private State(PermissionsExConfiguration config, WriteTrackingDataStore activeDataStore, ConcurrentMap<String, SubjectCache> subjectCaches, RankLadderCache rankLadderCache) {
             this.config = config;
             this.activeDataStore = activeDataStore;
+            this.subjectCaches = subjectCaches;
+            this.rankLadderCache = rankLadderCache;
         }
     }
 
     public PermissionsEx(final PermissionsExConfiguration config, ImplementationInterface impl) throws PermissionsLoadingException {
         this.impl = impl;
         this.logger = TranslatableLogger.forLogger(impl.getLogger());
+        this.cacheBudget = new CacheBudget(config.getCacheMemoryBudget(), impl.getAsyncExecutor());
+        // Baked data is accounted for by each subject's own cache, so only the subject itself is weighed here
+        this.calculatedSubjects = this.cacheBudget.build(CacheBuilder.newBuilder(),
+                (Map.Entry<String, String> key, CalculatedSubject subject) -> SizeEstimates.of(key) + CALCULATED_SUBJECT_SIZE,
+                new CacheLoader<Map.Entry<String, String>, CalculatedSubject>() {
+            @Override
+            public CalculatedSubject load(Map.Entry<String, String> key) throws Exception {
+                return new CalculatedSubject(SubjectDataBaker.inheritance(), key, PermissionsEx.this);
+            }
+        }, this::isOnline);
+        this.calculatedSubjectAdmission = new CacheAdmission<>(this.cacheBudget, this::isOnline);
         this.transientData = new MemoryDataStore();
         this.transientData.initialize(this);
         this.debug = config.isDebugEnabled();
         initialize(config);
+        updateMemoryMonitor(config);
+        updateProfiler(config);
         convertUuids();
 
         registerCommand(PermissionsExCommands.createRootCommand(this));
@@ -192,10 +239,14 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
 
     public SubjectCache getSubjects(String type) {
         checkNotNull(type, "type");
-        SubjectCache cache = subjectCaches.get(type);
+        return getSubjects(getState(), type);
+    }
+
+    private SubjectCache getSubjects(State state, String type) {
+        SubjectCache cache = state.subjectCaches.get(type);
         if (cache == null) {
-            cache = new SubjectCache(type, getState().activeDataStore);
-            SubjectCache newCache = subjectCaches.putIfAbsent(type, cache);
+            cache = new SubjectCache(type, state.activeDataStore, this.cacheBudget, getAsyncExecutor(), state.config.getRefreshInterval());
+            SubjectCache newCache = state.subjectCaches.putIfAbsent(type, cache);
             if (newCache != null) {
                 cache = newCache;
             }
@@ -207,7 +258,7 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
         checkNotNull(type, "type");
         SubjectCache cache = transientSubjectCaches.get(type);
         if (cache == null) {
-            cache = new SubjectCache(type, transientData);
+            cache = new SubjectCache(type, transientData, this.cacheBudget, getAsyncExecutor());
             SubjectCache newCache = transientSubjectCaches.putIfAbsent(type, cache);
             if (newCache != null) {
                 cache = newCache;
@@ -216,8 +267,35 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
         return cache;
     }
 
+    /**
+     * Open a session holding onto a subject's transient data. Transient data is kept while at least one session for its subject is open,
+     * and discarded once the last session is closed, so that data for subjects that are gone does not accumulate.
+     * Every call to this method must be paired with a call to {@link #closeTransientSession(String, String)}.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     */
+    public void openTransientSession(String type, String identifier) {
+        this.transientSessions.merge(Maps.immutableEntry(type, identifier), 1, Integer::sum);
+    }
+
+    /**
+     * Close a session opened with {@link #openTransientSession(String, String)}. If this was the last open session for the subject,
+     * its transient data is discarded.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     */
+    public void closeTransientSession(String type, String identifier) {
+        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
+        if (this.transientSessions.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null) == null) {
+            getTransientSubjects(type).remove(identifier);
+        }
+    }
+
     public void uncache(String type, String identifier) {
-        SubjectCache cache = subjectCaches.get(type);
+        final State state = this.state.get();
+        SubjectCache cache = state == null ? null : state.subjectCaches.get(type);
         if (cache != null) {
             cache.invalidate(identifier);
         }
@@ -234,7 +312,17 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
      * @return Access to rank ladders
      */
     public RankLadderCache getLadders() {
-        return this.rankLadderCache;
+        return getState().rankLadderCache;
+    }
+
+    /**
+     * Begin a transaction staging changes to the active data store, to be written together.
+     *
+     * @return A new transaction
+     */
+    public Transaction beginTransaction() {
+        final State state = getState();
+        return new Transaction(state.activeDataStore, type -> getSubjects(state, type));
     }
 
     /**
@@ -283,36 +371,139 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
             PermissionsExConfiguration config = getState().config.reload();
             config.validate();
             initialize(config);
-            getSubjects(SUBJECTS_GROUP).cacheAll();
         } catch (IOException e) {
             throw new PEBKACException(t("Error while loading configuration: %s", e.getLocalizedMessage()));
         }
     }
 
     private void initialize(PermissionsExConfiguration config) throws PermissionsLoadingException {
-        State newState = new State(config, config.getDefaultDataStore());
-        newState.activeDataStore.initialize(this);
-        State oldState = this.state.getAndSet(newState);
+        final State oldState = this.state.get();
+        final WriteTrackingDataStore newStore = new WriteTrackingDataStore(config.getDefaultDataStore());
+        final State newState;
         if (oldState != null) {
+            oldState.activeDataStore.startRecording(); // Writes from here on may not be part of what the new store loads
+        }
+        try {
+            newStore.initialize(this);
+
+            // Build and warm up caches for the new data store while the old state keeps serving requests
+            final ConcurrentMap<String, SubjectCache> newCaches = new ConcurrentHashMap<>();
+            final RankLadderCache newLadders;
+            if (oldState != null) {
+                oldState.subjectCaches.forEach((type, existing) -> newCaches.put(type, new SubjectCache(existing, newStore, config.getRefreshInterval())));
+                newLadders = new RankLadderCache(oldState.rankLadderCache, newStore, this.cacheBudget);
+            } else {
+                newLadders = new RankLadderCache(newStore, this.cacheBudget);
+            }
             try {
-                oldState.activeDataStore.close();
-            } catch (Exception e) {} // TODO maybe warn?
+                newCaches.computeIfAbsent(SUBJECTS_GROUP, type -> new SubjectCache(type, newStore, this.cacheBudget, getAsyncExecutor(), config.getRefreshInterval())).cacheAll();
+            } catch (RuntimeException e) {
+                getLogger().warn(t("Unable to load every group into the cache, the remaining groups will be loaded when needed: %s", e.getMessage()), e);
+            }
+
+            newState = new State(config, newStore, newCaches, newLadders);
+            if (oldState != null) {
+                newStore.startRecording(); // Writes made after the swap are newer than anything copied over from the old store
+            }
+            if (!this.state.compareAndSet(oldState, newState)) {
+                closeDataStore(newStore);
+                throw new PermissionsLoadingException(t("Another reload completed while this one was in progress"));
+            }
+        } catch (PermissionsLoadingException | RuntimeException e) {
+            if (oldState != null) {
+                oldState.activeDataStore.stopRecording();
+            }
+            throw e;
         }
+        final ConcurrentMap<String, SubjectCache> newCaches = newState.subjectCaches;
+        final RankLadderCache newLadders = newState.rankLadderCache;
 
-        getSubjects(SUBJECTS_GROUP).cacheAll();
-        this.rankLadderCache = new RankLadderCache(this.rankLadderCache, newState.activeDataStore);
-        this.subjectCaches.replaceAll((key, existing) -> new SubjectCache(existing, newState.activeDataStore));
-        if (this.cachedInheritance != null) {
-            this.cachedInheritance = null;
-            this.cachedInheritanceListeners.call(true, getContextInheritance(null));
+        if (oldState != null) {
+            // Caches created against the old state while the new one was being built
+            oldState.subjectCaches.forEach((type, existing) -> newCaches.computeIfAbsent(type, k -> new SubjectCache(existing, newStore, config.getRefreshInterval())));
+            this.cacheBudget.setMaximumBytes(config.getCacheMemoryBudget());
+            if (oldState.config.getMemoryPressureThreshold() != config.getMemoryPressureThreshold()) {
+                updateMemoryMonitor(config);
+            }
+            if (oldState.config.getProfilerSampleRate() != config.getProfilerSampleRate()
+                    || oldState.config.getProfilerReportInterval() != config.getProfilerReportInterval()) {
+                updateProfiler(config);
+            }
+
+            // Only subjects, ladders and inheritance whose data changed are invalidated
+            newLadders.publishChanges();
+            newCaches.values().forEach(SubjectCache::publishChanges);
+            final ContextInheritance oldInheritance = this.cachedInheritance;
+            if (oldInheritance != null) {
+                final ContextInheritance newInheritance = newStore.getContextInheritance(this);
+                if (newInheritance.equals(oldInheritance)) {
+                    this.cachedInheritance = newInheritance;
+                } else {
+                    clearCache(newInheritance);
+                }
+            }
+
+            // Writes still reaching the old data store go to the new one, and those it already took are copied over before it is closed
+            oldState.activeDataStore.retire(newStore)
+                    .thenCompose(none -> copyLateWrites(oldState.activeDataStore, newState))
+                    .whenComplete((none, err) -> {
+                        newStore.stopRecording();
+                        if (err != null) {
+                            getLogger().error(t("Unable to copy changes made during the reload to the new data store"), err);
+                        }
+                        closeDataStore(oldState.activeDataStore);
+                    });
         }
 
         // Migrate over legacy subject data
-        newState.activeDataStore.moveData("system", SUBJECTS_DEFAULTS, SUBJECTS_DEFAULTS, SUBJECTS_DEFAULTS).thenRun(() -> {
+        newStore.moveData("system", SUBJECTS_DEFAULTS, SUBJECTS_DEFAULTS, SUBJECTS_DEFAULTS).thenRun(() -> {
             getLogger().info(t("Successfully migrated old-style default data to new location"));
         });
     }
 
+    /**
+     * Copy the data written to an old data store after its replacement started loading, so the replacement does not miss
+     * changes it loaded too early to see. Data that has been written to the replacement since is newer, and is left alone.
+     *
+     * @param oldStore The retired data store
+     * @param newState The state holding its replacement
+     * @return A future completing once everything has been copied
+     */
+    private CompletableFuture<Void> copyLateWrites(WriteTrackingDataStore oldStore, State newState) {
+        final WriteTrackingDataStore newStore = newState.activeDataStore;
+        final List<CompletableFuture<?>> results = new ArrayList<>();
+        for (Map.Entry<String, String> subject : oldStore.getWrittenSubjects()) {
+            final String type = subject.getKey(), identifier = subject.getValue();
+            if (newStore.wasSubjectWritten(type, identifier)) {
+                continue;
+            }
+            final SubjectCache cache = getSubjects(newState, type);
+            if (oldStore.isRegistered(type, identifier)) {
+                final ImmutableSubjectData data = oldStore.getData(type, identifier, null);
+                results.add(cache.update(identifier, current -> newStore.wasSubjectWritten(type, identifier) ? current : data));
+            } else if (newStore.isRegistered(type, identifier)) {
+                results.add(cache.remove(identifier));
+            }
+        }
+        for (String ladder : oldStore.getWrittenRankLadders()) {
+            if (!newStore.wasRankLadderWritten(ladder)) {
+                results.add(newStore.setRankLadder(ladder, oldStore.hasRankLadder(ladder) ? oldStore.getRankLadder(ladder, null) : null));
+            }
+        }
+        if (oldStore.isContextInheritanceWritten() && !newStore.isContextInheritanceWritten()) {
+            results.add(newStore.setContextInheritance(oldStore.getContextInheritance(null)));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]));
+    }
+
+    private void closeDataStore(DataStore store) {
+        try {
+            store.close();
+        } catch (RuntimeException e) {
+            getLogger().error(t("Unable to close data store"), e);
+        }
+    }
+
     public CompletableFuture<Void> reload() {
         return Util.asyncFailableFuture(() -> {
             reloadSync();
@@ -323,6 +514,177 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     public void close() {
         State state = this.state.getAndSet(null);
         state.activeDataStore.close();
+        for (Map.Entry<String, String> session : this.transientSessions.keySet()) {
+            if (this.transientSessions.remove(session) != null) {
+                getTransientSubjects(session.getKey()).remove(session.getValue());
+            }
+        }
+        if (this.memoryMonitor != null) {
+            this.memoryMonitor.close();
+            this.memoryMonitor = null;
+        }
+        this.traceRecorder.clear();
+        synchronized (this) {
+            this.profilerReport = null;
+            this.profiler = null;
+            this.expirationTick = null;
+            this.quitExpirations.clear();
+            if (this.scheduler != null) {
+                this.scheduler.shutdownNow();
+                this.scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Get the scheduler shared by PermissionsEx's periodic tasks, creating it if necessary.
+     * Tasks run on a single daemon thread, so they should be short.
+     *
+     * @return The scheduler
+     */
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread ret = new Thread(r, "PermissionsEx Scheduler");
+                ret.setDaemon(true);
+                return ret;
+            });
+        }
+        return this.scheduler;
+    }
+
+    private synchronized void updateProfiler(PermissionsExConfiguration config) {
+        if (this.profilerReport != null) {
+            this.profilerReport.cancel(false);
+            this.profilerReport = null;
+        }
+        if (config.getProfilerSampleRate() <= 0) {
+            this.profiler = null;
+            return;
+        }
+
+        final PermissionProfiler profiler = new PermissionProfiler(config.getProfilerSampleRate());
+        this.profiler = profiler;
+        if (config.getProfilerReportInterval() > 0) {
+            this.profilerReport = getScheduler().scheduleAtFixedRate(() -> {
+                final List<PermissionProfiler.NodeRate> checked = profiler.getTopNodes(PROFILER_REPORT_SIZE, false),
+                        undefined = profiler.getTopNodes(PROFILER_REPORT_SIZE, true);
+                profiler.reset();
+                if (checked.isEmpty()) {
+                    return;
+                }
+                getLogger().info(t("Most checked permissions:"));
+                for (PermissionProfiler.NodeRate rate : checked) {
+                    getLogger().info(t("  %s: %s checks/s", rate.getNode(), String.format("%.1f", rate.getChecksPerSecond())));
+                }
+                getLogger().info(t("Permissions most often checked without a value set:"));
+                for (PermissionProfiler.NodeRate rate : undefined) {
+                    getLogger().info(t("  %s: %s undefined checks/s", rate.getNode(), String.format("%.1f", rate.getUndefinedPerSecond())));
+                }
+            }, config.getProfilerReportInterval(), config.getProfilerReportInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    private void updateMemoryMonitor(PermissionsExConfiguration config) {
+        if (this.memoryMonitor != null) {
+            this.memoryMonitor.close();
+            this.memoryMonitor = null;
+        }
+        if (config.getMemoryPressureThreshold() > 0) {
+            this.memoryMonitor = new MemoryPressureMonitor(config.getMemoryPressureThreshold(), this::releaseOfflineData, getAsyncExecutor());
+            if (!this.memoryMonitor.isActive()) {
+                getLogger().warn(t("Memory usage can not be monitored on this JVM, so baked data for offline subjects will not be released when memory is low"));
+            }
+        }
+    }
+
+    /**
+     * Release baked data for every subject that is not online. Baked data for online subjects is kept,
+     * since it is likely to be needed again soon.
+     */
+    private void releaseOfflineData() {
+        int released = 0;
+        for (CalculatedSubject subject : calculatedSubjects.asMap().values()) {
+            if (!isOnline(subject.getIdentifier())) {
+                subject.releaseBakedData();
+                released++;
+            }
+        }
+        if (hasDebugMode()) {
+            getLogger().info(t("Memory is low, released baked data for %s offline subjects", released));
+        }
+    }
+
+    /**
+     * Mark a subject as online or offline. Data for online subjects is held onto even when memory is short.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     * @param online Whether the subject is online
+     */
+    public void setOnline(String type, String identifier, boolean online) {
+        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
+        if (online) {
+            this.onlineSubjects.add(key);
+            this.quitExpirations.cancel(key);
+        } else {
+            this.onlineSubjects.remove(key);
+        }
+        getSubjects(type).setPinned(identifier, online);
+        getTransientSubjects(type).setPinned(identifier, online);
+    }
+
+    /**
+     * Uncache a subject that has gone offline once the configured quit grace period has passed,
+     * unless it comes back online before then.
+     *
+     * @see #uncacheAfterGracePeriod(String, String, Runnable)
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     */
+    public void uncacheAfterGracePeriod(String type, String identifier) {
+        uncacheAfterGracePeriod(type, identifier, () -> uncache(type, identifier));
+    }
+
+    /**
+     * Run an action releasing cached data for a subject that has gone offline once the configured quit grace period has passed.
+     * If the subject is {@link #setOnline(String, String, boolean) marked online} again before then, the action is cancelled,
+     * so subjects reconnecting shortly after disconnecting do not have to be loaded and baked again.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     * @param uncacheAction The action releasing the subject's data
+     */
+    public void uncacheAfterGracePeriod(String type, String identifier, Runnable uncacheAction) {
+        final int gracePeriod = getConfig().getQuitGracePeriod();
+        if (gracePeriod <= 0) {
+            uncacheAction.run();
+            return;
+        }
+        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
+        this.quitExpirations.schedule(key, gracePeriod, TimeUnit.SECONDS, () -> {
+            if (!isOnline(key)) {
+                uncacheAction.run();
+            }
+        });
+        startExpirationTicker();
+    }
+
+    private synchronized void startExpirationTicker() {
+        if (this.expirationTick != null) {
+            return;
+        }
+        this.expirationTick = getScheduler().scheduleAtFixedRate(() -> {
+            try {
+                this.quitExpirations.tick();
+            } catch (RuntimeException e) {
+                getLogger().error(t("Unable to release data for a disconnected subject"), e);
+            }
+        }, this.quitExpirations.getTickMillis(), this.quitExpirations.getTickMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isOnline(Map.Entry<String, String> identifier) {
+        return this.onlineSubjects.contains(identifier);
     }
 
     @Override
@@ -395,6 +757,15 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
         return getState().config;
     }
 
+    /**
+     * Get the calculated subject for a subject. The calculated subject is cached, so it is kept up to date with changes
+     * to the subject's data, and can be held on to for as long as it is needed.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     * @return The calculated subject
+     * @throws PermissionsLoadingException if the subject's data could not be loaded
+     */
     public CalculatedSubject getCalculatedSubject(String type, String identifier) throws PermissionsLoadingException {
         try {
             return calculatedSubjects.get(Maps.immutableEntry(type, identifier));
@@ -403,6 +774,73 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
         }
     }
 
+    /**
+     * Get a calculated subject for a one-shot read. Calculated subjects for subjects requested repeatedly are cached,
+     * while subjects only looked at once, such as by a plugin iterating over every offline player, are calculated
+     * without displacing the cached ones.
+     *
+     * A calculated subject that was not cached is not tracked by {@link #getActiveCalculatedSubjects()},
+     * so it must not be held on to. Use {@link #getCalculatedSubject(String, String)} for that.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     * @return The calculated subject
+     * @throws PermissionsLoadingException if the subject's data could not be loaded
+     */
+    public CalculatedSubject lookupCalculatedSubject(String type, String identifier) throws PermissionsLoadingException {
+        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
+        try {
+            final CalculatedSubject present = calculatedSubjects.getIfPresent(key);
+            if (present != null) {
+                return present;
+            } else if (calculatedSubjectAdmission.admit(key)) {
+                return calculatedSubjects.get(key);
+            } else {
+                return new CalculatedSubject(SubjectDataBaker.inheritance(), key, this);
+            }
+        } catch (ExecutionException e) {
+            throw new PermissionsLoadingException(t("While calculating subject data for %s:%s", type, identifier), e);
+        }
+    }
+
+    /**
+     * Get the current generation of baked subject data. The generation is incremented whenever a change occurs
+     * that affects every subject's baked data, such as a change in context inheritance or a reload.
+     *
+     * @return The current bake generation
+     */
+    public long getBakeGeneration() {
+        return this.bakeGeneration.get();
+    }
+
+    /**
+     * Get the profiler that permission checks are sampled into, if profiling is enabled.
+     *
+     * @return The profiler, or null if it is disabled
+     */
+    @Nullable
+    public PermissionProfiler getProfiler() {
+        return this.profiler;
+    }
+
+    /**
+     * Get the recorder that permission, option, and parent checks are traced to.
+     *
+     * @return The trace recorder
+     */
+    public TraceRecorder getTraceRecorder() {
+        return this.traceRecorder;
+    }
+
+    /**
+     * Get the memory budget shared by all of this manager's caches.
+     *
+     * @return The cache budget
+     */
+    public CacheBudget getCacheBudget() {
+        return this.cacheBudget;
+    }
+
     public Iterable<? extends CalculatedSubject> getActiveCalculatedSubjects() {
         return Collections.unmodifiableCollection(calculatedSubjects.asMap().values());
     }
@@ -425,6 +863,7 @@ public class PermissionsEx implements ImplementationInterface, Caching<ContextIn
     @Override
     public void clearCache(ContextInheritance newData) {
         this.cachedInheritance = newData;
+        this.bakeGeneration.incrementAndGet();
         this.cachedInheritanceListeners.call(true, newData);
     }
 }
@@ -16,8 +16,8 @@
  */
 package ninja.leaping.permissionsex.backend;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.objectmapping.ObjectMapper;
@@ -25,16 +25,23 @@ import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.data.CacheListenerHolder;
 import ninja.leaping.permissionsex.data.Caching;
+import ninja.leaping.permissionsex.data.ChangeDispatcher;
 import ninja.leaping.permissionsex.data.ContextInheritance;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import ninja.leaping.permissionsex.rank.RankLadder;
 import ninja.leaping.permissionsex.util.Util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static ninja.leaping.permissionsex.util.Translations.t;
 
@@ -47,6 +54,21 @@ public abstract class AbstractDataStore implements DataStore {
     private final CacheListenerHolder<Map.Entry<String, String>, ImmutableSubjectData> listeners = new CacheListenerHolder<>();
     private final CacheListenerHolder<String, RankLadder> rankLadderListeners = new CacheListenerHolder<>();
     private final CacheListenerHolder<Boolean, ContextInheritance> contextInheritanceListeners = new CacheListenerHolder<>();
+    private final Executor changeExecutor = task -> {
+        final PermissionsEx manager = this.manager;
+        if (manager == null || !dispatchChangesAsync()) {
+            task.run();
+        } else {
+            manager.getAsyncExecutor().execute(task);
+        }
+    };
+    private final ChangeDispatcher<Map.Entry<String, String>, ImmutableSubjectData> subjectChanges = new ChangeDispatcher<>(listeners, changeExecutor);
+    private final ChangeDispatcher<String, RankLadder> rankLadderChanges = new ChangeDispatcher<>(rankLadderListeners, changeExecutor);
+    private final ChangeDispatcher<Boolean, ContextInheritance> contextInheritanceChanges = new ChangeDispatcher<>(contextInheritanceListeners, changeExecutor);
+    /**
+     * Changes made by a bulk operation running on the current thread, which are published once the operation has completed.
+     */
+    private final ThreadLocal<List<Runnable>> deferredChanges = new ThreadLocal<>();
 
     protected AbstractDataStore(Factory factory) {
         if (!factory.expectedClazz.equals(getClass())) {
@@ -83,6 +105,24 @@ public abstract class AbstractDataStore implements DataStore {
         }
     }
 
+    @Override
+    public final Map<String, ImmutableSubjectData> getDataBulk(String type, Collection<String> identifiers, Function<String, Caching<ImmutableSubjectData>> listenerFactory) {
+        Objects.requireNonNull(type, "type");
+        Objects.requireNonNull(identifiers, "identifiers");
+
+        try {
+            Map<String, ImmutableSubjectData> ret = getDataBulkInternal(type, identifiers);
+            if (listenerFactory != null) {
+                for (String identifier : ret.keySet()) {
+                    listeners.addListener(Maps.immutableEntry(type, identifier), listenerFactory.apply(identifier));
+                }
+            }
+            return ret;
+        } catch (PermissionsLoadingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public final CompletableFuture<ImmutableSubjectData> setData(String type, String identifier, ImmutableSubjectData data) {
         Objects.requireNonNull(type, "type");
@@ -90,14 +130,25 @@ public abstract class AbstractDataStore implements DataStore {
 
         final Map.Entry<String, String> lookupKey = Maps.immutableEntry(type, identifier);
         return setDataInternal(type, identifier, data)
-                .thenApply(newData -> {
+                .thenCompose(newData -> {
                     if (newData != null) {
-                        listeners.call(lookupKey, newData);
+                        return publish(() -> subjectChanges.post(lookupKey, newData)).thenApply(none -> newData);
                     }
-                    return newData;
+                    return CompletableFuture.completedFuture(newData);
                 });
     }
 
+    /**
+     * Whether change notifications for data written to this store are delivered on the async executor.
+     * The futures returned by setters complete only once listeners have been notified either way, but the listeners' invalidation
+     * work then does not run on the thread completing the write. Stores whose writes must be visible synchronously can disable this.
+     *
+     * @return whether to dispatch changes asynchronously
+     */
+    protected boolean dispatchChangesAsync() {
+        return true;
+    }
+
     /**
      * Apply default data when creating a new file.
      *
@@ -113,18 +164,71 @@ public abstract class AbstractDataStore implements DataStore {
 
     protected abstract ImmutableSubjectData getDataInternal(String type, String identifier) throws PermissionsLoadingException;
 
+    /**
+     * Load data for several subjects of one type. Backends that can load many subjects in one operation should override this,
+     * by default each subject is loaded with {@link #getDataInternal(String, String)}.
+     *
+     * @param type The type of subject to get
+     * @param identifiers The identifiers of the subjects to get
+     * @return The subject data, containing an entry for every requested identifier
+     * @throws PermissionsLoadingException if any subject's data could not be loaded
+     */
+    protected Map<String, ImmutableSubjectData> getDataBulkInternal(String type, Collection<String> identifiers) throws PermissionsLoadingException {
+        final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+        for (String identifier : identifiers) {
+            ret.put(identifier, getDataInternal(type, identifier));
+        }
+        return ret;
+    }
+
     protected abstract CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, ImmutableSubjectData data);
 
     @Override
     public final Iterable<Map.Entry<String, ImmutableSubjectData>> getAll(final String type) {
         Objects.requireNonNull(type, "type");
-        return Iterables.transform(getAllIdentifiers(type),
-                input -> Maps.immutableEntry(input, getData(type, input, null)));
+        return getDataBulk(type, ImmutableList.copyOf(getAllIdentifiers(type))).entrySet();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Listeners are not notified of changes made by the operation until it has completed, at which point repeated changes to
+     * the same data are merged. Futures for writes made by the operation therefore must not be waited on within the operation.
+     */
     @Override
     public final <T> CompletableFuture<T> performBulkOperation(final Function<DataStore, T> function) {
-        return Util.asyncFailableFuture(() -> performBulkOperationSync(function), getManager().getAsyncExecutor());
+        return Util.asyncFailableFuture(() -> {
+            final List<Runnable> changes = new ArrayList<>();
+            deferredChanges.set(changes);
+            try {
+                return performBulkOperationSync(function);
+            } finally {
+                deferredChanges.remove();
+                changes.forEach(Runnable::run);
+            }
+        }, getManager().getAsyncExecutor());
+    }
+
+    /**
+     * Publish a change to listeners, or defer it until the end of the bulk operation running on this thread.
+     *
+     * @param post The action posting the change
+     * @return A future completing once listeners have been notified
+     */
+    private CompletableFuture<Void> publish(Supplier<CompletableFuture<Void>> post) {
+        final List<Runnable> changes = deferredChanges.get();
+        if (changes == null) {
+            return post.get();
+        }
+        final CompletableFuture<Void> ret = new CompletableFuture<>();
+        changes.add(() -> post.get().whenComplete((none, err) -> {
+            if (err != null) {
+                ret.completeExceptionally(err);
+            } else {
+                ret.complete(null);
+            }
+        }));
+        return ret;
     }
 
     @Override
@@ -140,11 +244,11 @@ public abstract class AbstractDataStore implements DataStore {
     @Override
     public final CompletableFuture<RankLadder> setRankLadder(final String identifier, RankLadder ladder) {
         return setRankLadderInternal(identifier, ladder)
-                .thenApply(newData -> {
+                .thenCompose(newData -> {
                     if (newData != null) {
-                        rankLadderListeners.call(identifier, newData);
+                        return publish(() -> rankLadderChanges.post(identifier, newData)).thenApply(none -> newData);
                     }
-                    return newData;
+                    return CompletableFuture.completedFuture(null);
                 });
     }
 
@@ -165,11 +269,11 @@ public abstract class AbstractDataStore implements DataStore {
     @Override
     public final CompletableFuture<ContextInheritance> setContextInheritance(ContextInheritance contextInheritance) {
         return setContextInheritanceInternal(contextInheritance)
-                .thenApply(newData -> {
+                .thenCompose(newData -> {
                     if (newData != null) {
-                        contextInheritanceListeners.call(true, newData);
+                        return publish(() -> contextInheritanceChanges.post(true, newData)).thenApply(none -> newData);
                     }
-                    return newData;
+                    return CompletableFuture.completedFuture(null);
                 });
     }
 
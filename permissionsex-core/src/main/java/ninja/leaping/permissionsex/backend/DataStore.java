@@ -27,6 +27,9 @@ import ninja.leaping.permissionsex.rank.RankLadder;
 import ninja.leaping.permissionsex.util.Util;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -59,13 +62,60 @@ public interface DataStore {
      */
     ImmutableSubjectData getData(String type, String identifier, @Nullable Caching<ImmutableSubjectData> listener);
 
+    /**
+     * Loads the data for several subjects of the same type at once.
+     *
+     * @see #getDataBulk(String, Collection, Function)
+     * @param type The type of subject to get
+     * @param identifiers The identifiers of the subjects to get
+     * @return The relevant subject data, keyed by identifier
+     */
+    default Map<String, ImmutableSubjectData> getDataBulk(String type, Collection<String> identifiers) {
+        return getDataBulk(type, identifiers, null);
+    }
+
+    /**
+     * Loads the data for several subjects of the same type at once. The default implementation loads each subject separately,
+     * while backends that can fetch many subjects in a single operation should override this.
+     *
+     * @param type The type of subject to get
+     * @param identifiers The identifiers of the subjects to get
+     * @param listenerFactory A function providing the update listener for each subject, or null
+     * @return The relevant subject data, containing an entry for every requested identifier
+     */
+    default Map<String, ImmutableSubjectData> getDataBulk(String type, Collection<String> identifiers, @Nullable Function<String, Caching<ImmutableSubjectData>> listenerFactory) {
+        final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+        for (String identifier : identifiers) {
+            ret.put(identifier, getData(type, identifier, listenerFactory == null ? null : listenerFactory.apply(identifier)));
+        }
+        return ret;
+    }
+
+    /**
+     * Get stamps identifying the current version of the data stored for several subjects. A subject's stamp changes whenever
+     * its stored data changes, including changes made outside of this instance, such as by another server sharing the same backend.
+     * Getting stamps is expected to be much cheaper than loading the data itself.
+     *
+     * The default implementation supports no stamps, which means data is never checked for outside changes.
+     *
+     * @param type The type of subject to get stamps for
+     * @param identifiers The identifiers of the subjects to get stamps for
+     * @return The current version stamps, keyed by identifier. Subjects without a stamp are absent
+     */
+    default Map<String, Long> getVersionStamps(String type, Collection<String> identifiers) {
+        return Collections.emptyMap();
+    }
+
     /**
      * Sets the data at the specified type and identifier.
      *
      * @param type The type of subject data is being fetched for
      * @param identifier The identifier of the subject data is being fetched for
      * @param data The data to commit to this backend. This being null deletes any data for the given identifier
-     * @return A future that can be used to listen for completion of writing the changed data
+     * @return A future that can be used to listen for completion of writing the changed data. It completes only once
+     *          listeners for the subject have been notified of the change, which may happen on the async executor, and for
+     *          writes made during a {@link #performBulkOperation(Function) bulk operation} not before the operation has returned.
+     *          Do not wait on it from inside a bulk operation, or from a task that the notification could be queued behind
      */
     CompletableFuture<ImmutableSubjectData> setData(String type, String identifier, @Nullable ImmutableSubjectData data);
 
@@ -127,7 +177,8 @@ public interface DataStore {
      * Perform a bulk operation on this data store. While this operation is in progress, all writes must be suppressed
      * (meaning changes must be cached in memory until the operation is complete).
      *
-     * Bulk operations may be executed asynchronously.
+     * Bulk operations may be executed asynchronously. Change notifications for writes made during the operation are delivered
+     * once it returns, so the futures returned by those writes do not complete before then.
      *
      * @param function The function to call containing the operation.
      */
@@ -162,12 +213,20 @@ public interface DataStore {
      *
      * @param identifier The name of the ladder. Case-insensitive for overwriting existing ladders
      * @param ladder The ladder to update
-     * @return a future tracking the status of this operation
+     * @return a future tracking the status of this operation. Like {@link #setData(String, String, ImmutableSubjectData)},
+     *          it completes once listeners have been notified
      */
     CompletableFuture<RankLadder> setRankLadder(String identifier, @Nullable RankLadder ladder);
 
     ContextInheritance getContextInheritance(Caching<ContextInheritance> inheritance);
 
+    /**
+     * Set the context inheritance rules for this data store.
+     *
+     * @param inheritance The new inheritance rules
+     * @return a future tracking the status of this operation. Like {@link #setData(String, String, ImmutableSubjectData)},
+     *          it completes once listeners have been notified
+     */
     CompletableFuture<ContextInheritance> setContextInheritance(ContextInheritance inheritance);
 }
 
@@ -0,0 +1,263 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.data.Caching;
+import ninja.leaping.permissionsex.data.ContextInheritance;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.rank.RankLadder;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A data store that keeps track of the writes made through it, so it can be replaced by another data store without losing them.
+ *
+ * Every write counts as in flight until its future completes, and bulk operations count as a whole. While recording, the subjects,
+ * rank ladders and context inheritance written are remembered, so they can be copied to a replacement store that loaded its data
+ * before those writes were saved. Once {@link #retire(DataStore) retired}, writes are redirected to the replacement store,
+ * except for writes made by a bulk operation that started before retirement.
+ */
+public final class WriteTrackingDataStore implements DataStore {
+    private final DataStore delegate;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final CompletableFuture<Void> idle = new CompletableFuture<>();
+    private final ThreadLocal<Boolean> inBulkOperation = new ThreadLocal<>();
+    private volatile DataStore successor;
+    private volatile boolean recording;
+    private final Set<Map.Entry<String, String>> writtenSubjects = ConcurrentHashMap.newKeySet();
+    private final Set<String> writtenRankLadders = ConcurrentHashMap.newKeySet();
+    private volatile boolean contextInheritanceWritten;
+
+    public WriteTrackingDataStore(DataStore delegate) {
+        this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    }
+
+    public DataStore getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Start remembering what is written through this store.
+     */
+    public void startRecording() {
+        this.recording = true;
+    }
+
+    /**
+     * Stop remembering what is written through this store, and forget what has been recorded.
+     */
+    public void stopRecording() {
+        this.recording = false;
+        this.writtenSubjects.clear();
+        this.writtenRankLadders.clear();
+        this.contextInheritanceWritten = false;
+    }
+
+    /**
+     * Get the subjects written since recording started.
+     *
+     * @return The type and identifier of every subject written
+     */
+    public Set<Map.Entry<String, String>> getWrittenSubjects() {
+        return ImmutableSet.copyOf(this.writtenSubjects);
+    }
+
+    /**
+     * Get the rank ladders written since recording started.
+     *
+     * @return The lowercased names of every ladder written
+     */
+    public Set<String> getWrittenRankLadders() {
+        return ImmutableSet.copyOf(this.writtenRankLadders);
+    }
+
+    public boolean wasSubjectWritten(String type, String identifier) {
+        return this.writtenSubjects.contains(Maps.immutableEntry(type, identifier));
+    }
+
+    public boolean wasRankLadderWritten(String ladder) {
+        return this.writtenRankLadders.contains(ladder.toLowerCase());
+    }
+
+    public boolean isContextInheritanceWritten() {
+        return this.contextInheritanceWritten;
+    }
+
+    /**
+     * Redirect all further writes to another data store.
+     *
+     * @param successor The store to write to from now on
+     * @return A future completing once every write made to this store's delegate has completed
+     */
+    public CompletableFuture<Void> retire(DataStore successor) {
+        Preconditions.checkNotNull(successor, "successor");
+        this.successor = successor;
+        if (this.inFlight.get() == 0) {
+            this.idle.complete(null);
+        }
+        return this.idle;
+    }
+
+    private <T> CompletableFuture<T> write(Function<DataStore, CompletableFuture<T>> action, Runnable record) {
+        this.inFlight.incrementAndGet(); // Before checking for a successor, so retire() either sees this write or this write sees the successor
+        final DataStore successor = this.successor;
+        if (successor != null && this.inBulkOperation.get() == null) {
+            finishWrite();
+            return action.apply(successor);
+        }
+        if (this.recording) {
+            record.run();
+        }
+        final CompletableFuture<T> ret;
+        try {
+            ret = action.apply(this.delegate);
+        } catch (RuntimeException e) {
+            finishWrite();
+            throw e;
+        }
+        return ret.whenComplete((result, err) -> finishWrite());
+    }
+
+    private void finishWrite() {
+        if (this.inFlight.decrementAndGet() == 0 && this.successor != null) {
+            this.idle.complete(null);
+        }
+    }
+
+    @Override
+    public void initialize(PermissionsEx core) throws PermissionsLoadingException {
+        this.delegate.initialize(core);
+    }
+
+    @Override
+    public void close() {
+        this.delegate.close();
+    }
+
+    @Override
+    public ImmutableSubjectData getData(String type, String identifier, @Nullable Caching<ImmutableSubjectData> listener) {
+        return this.delegate.getData(type, identifier, listener);
+    }
+
+    @Override
+    public Map<String, ImmutableSubjectData> getDataBulk(String type, Collection<String> identifiers, @Nullable Function<String, Caching<ImmutableSubjectData>> listenerFactory) {
+        return this.delegate.getDataBulk(type, identifiers, listenerFactory);
+    }
+
+    @Override
+    public Map<String, Long> getVersionStamps(String type, Collection<String> identifiers) {
+        return this.delegate.getVersionStamps(type, identifiers);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableSubjectData> setData(String type, String identifier, @Nullable ImmutableSubjectData data) {
+        return write(store -> store.setData(type, identifier, data), () -> this.writtenSubjects.add(Maps.immutableEntry(type, identifier)));
+    }
+
+    @Override
+    public boolean isRegistered(String type, String identifier) {
+        return this.delegate.isRegistered(type, identifier);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, ImmutableSubjectData>> getAll(String type) {
+        return this.delegate.getAll(type);
+    }
+
+    @Override
+    public Iterable<String> getAllIdentifiers(String type) {
+        return this.delegate.getAllIdentifiers(type);
+    }
+
+    @Override
+    public Set<String> getRegisteredTypes() {
+        return this.delegate.getRegisteredTypes();
+    }
+
+    @Override
+    public String serialize(ConfigurationNode node) throws PermissionsLoadingException {
+        return this.delegate.serialize(node);
+    }
+
+    @Override
+    public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getAll() {
+        return this.delegate.getAll();
+    }
+
+    @Override
+    public <T> CompletableFuture<T> performBulkOperation(Function<DataStore, T> function) {
+        return write(store -> {
+            if (store != this.delegate) {
+                return store.performBulkOperation(function);
+            }
+            return store.performBulkOperation(inner -> {
+                final Boolean previous = this.inBulkOperation.get();
+                this.inBulkOperation.set(Boolean.TRUE);
+                try {
+                    return function.apply(this); // Writes in the operation go through this store to be recorded
+                } finally {
+                    if (previous == null) {
+                        this.inBulkOperation.remove();
+                    }
+                }
+            });
+        }, () -> {});
+    }
+
+    @Override
+    public Iterable<String> getAllRankLadders() {
+        return this.delegate.getAllRankLadders();
+    }
+
+    @Override
+    public RankLadder getRankLadder(String ladder, @Nullable Caching<RankLadder> listener) {
+        return this.delegate.getRankLadder(ladder, listener);
+    }
+
+    @Override
+    public boolean hasRankLadder(String ladder) {
+        return this.delegate.hasRankLadder(ladder);
+    }
+
+    @Override
+    public CompletableFuture<RankLadder> setRankLadder(String identifier, @Nullable RankLadder ladder) {
+        return write(store -> store.setRankLadder(identifier, ladder), () -> this.writtenRankLadders.add(identifier.toLowerCase()));
+    }
+
+    @Override
+    public ContextInheritance getContextInheritance(Caching<ContextInheritance> inheritance) {
+        return this.delegate.getContextInheritance(inheritance);
+    }
+
+    @Override
+    public CompletableFuture<ContextInheritance> setContextInheritance(ContextInheritance inheritance) {
+        return write(store -> store.setContextInheritance(inheritance), () -> this.contextInheritanceWritten = true);
+    }
+}
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import com.google.common.reflect.TypeToken;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.ConfigurationOptions;
@@ -44,6 +45,9 @@ import ninja.leaping.permissionsex.util.Util;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -64,7 +68,9 @@ public final class FileDataStore extends AbstractDataStore {
     private boolean compat = false;
 
     private ConfigurationLoader permissionsFileLoader;
-    private ConfigurationNode permissionsConfig;
+    private File permissionsFile;
+    private volatile ConfigurationNode permissionsConfig;
+    private volatile long lastModified; // Modification time of the permissions file when it was last loaded or saved by us
     private final AtomicInteger saveSuppressed = new AtomicInteger();
     private final AtomicBoolean dirty = new AtomicBoolean();
 
@@ -111,6 +117,7 @@ public final class FileDataStore extends AbstractDataStore {
         } else {
             permissionsFileLoader = createLoader(permissionsFile);
         }
+        this.permissionsFile = permissionsFile;
 
         try {
             permissionsConfig = permissionsFileLoader.load(ConfigurationOptions.defaults());//.setMapFactory(MapFactories.unordered()));
@@ -130,20 +137,33 @@ public final class FileDataStore extends AbstractDataStore {
             } catch (Exception e) {
                 throw new PermissionsLoadingException(t("Error creating initial data for file backend"), e);
             }
-        } else {
-            ConfigurationTransformation versionUpdater = SchemaMigrations.versionedMigration(getManager().getLogger());
-            int startVersion = permissionsConfig.getNode("schema-version").getInt(-1);
-            versionUpdater.apply(permissionsConfig);
-            int endVersion = permissionsConfig.getNode("schema-version").getInt();
-            if (endVersion > startVersion) {
-                getManager().getLogger().info(t("%s schema version updated from %s to %s", permissionsFile, startVersion, endVersion));
-                try {
-                    save().get();
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new PermissionsLoadingException(t("While performing version upgrade"), e);
-                }
+        } else if (migrate(permissionsConfig)) {
+            dirty.set(true);
+            try {
+                save().get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new PermissionsLoadingException(t("While performing version upgrade"), e);
             }
         }
+        this.lastModified = permissionsFile.lastModified();
+    }
+
+    /**
+     * Bring loaded permissions data up to the latest schema version.
+     *
+     * @param node The root node of the permissions file
+     * @return Whether the data had to be updated
+     */
+    private boolean migrate(ConfigurationNode node) {
+        ConfigurationTransformation versionUpdater = SchemaMigrations.versionedMigration(getManager().getLogger());
+        int startVersion = node.getNode("schema-version").getInt(-1);
+        versionUpdater.apply(node);
+        int endVersion = node.getNode("schema-version").getInt();
+        if (endVersion > startVersion) {
+            getManager().getLogger().info(t("%s schema version updated from %s to %s", permissionsFile, startVersion, endVersion));
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -168,8 +188,11 @@ public final class FileDataStore extends AbstractDataStore {
 
     private void saveSync() throws IOException {
         if (saveSuppressed.get() <= 0) {
-            if (dirty.compareAndSet(true, false)) {
-                permissionsFileLoader.save(permissionsConfig);
+            synchronized (this) { // Held so a reload can never run between saving and recording the file's new modification time
+                if (dirty.compareAndSet(true, false)) {
+                    permissionsFileLoader.save(permissionsConfig);
+                    this.lastModified = this.permissionsFile.lastModified();
+                }
             }
         }
     }
@@ -183,12 +206,75 @@ public final class FileDataStore extends AbstractDataStore {
         }
     }
 
+    @Override
+    protected Map<String, ImmutableSubjectData> getDataBulkInternal(String type, Collection<String> identifiers) throws PermissionsLoadingException {
+        final ConfigurationNode typeNode = getSubjectsNode().getNode(type);
+        final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+        for (String identifier : identifiers) {
+            try {
+                ret.put(identifier, FileSubjectData.fromNode(typeNode.getNode(identifier)));
+            } catch (ObjectMappingException e) {
+                throw new PermissionsLoadingException(t("While deserializing subject data for %s:", identifier), e);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Stamps are SHA-256 digests of each subject's section in the permissions file, which is loaded again first if it has been
+     * modified by something else since we last loaded or saved it.
+     */
+    @Override
+    public Map<String, Long> getVersionStamps(String type, Collection<String> identifiers) {
+        reloadIfModified();
+        final ConfigurationNode typeNode = getSubjectsNode().getNode(type);
+        final Map<String, Long> ret = new HashMap<>();
+        for (String identifier : identifiers) {
+            ret.put(identifier, Hashing.sha256().hashString(String.valueOf(typeNode.getNode(identifier).getValue()), StandardCharsets.UTF_8).asLong());
+        }
+        return ret;
+    }
+
+    /**
+     * Load the permissions file again if something else has modified it. This holds the same lock as every write to the
+     * loaded data, so a write is either already marked dirty, which keeps the file from being loaded over it, or made to the newly loaded data.
+     */
+    private void reloadIfModified() {
+        if (this.permissionsFile.lastModified() == this.lastModified) {
+            return;
+        }
+        boolean migrated = false;
+        synchronized (this) {
+            final long modified = this.permissionsFile.lastModified();
+            // Loading the file again would discard changes of our own that have not been saved yet
+            if (modified == this.lastModified || dirty.get() || saveSuppressed.get() > 0) {
+                return;
+            }
+            try {
+                final ConfigurationNode loaded = permissionsFileLoader.load();
+                if (migrate(loaded)) {
+                    migrated = true;
+                    dirty.set(true);
+                }
+                this.permissionsConfig = loaded;
+                this.lastModified = modified;
+            } catch (IOException e) {
+                getManager().getLogger().warn(t("Unable to load changes to permissions file %s: %s", this.permissionsFile, e.getMessage()), e);
+            }
+        }
+        if (migrated) {
+            save();
+        }
+    }
+
     @Override
     protected CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, final ImmutableSubjectData data) {
         try {
             if (data == null) {
-                getSubjectsNode().getNode(type, identifier).setValue(null);
-                dirty.set(true);
+                synchronized (this) {
+                    getSubjectsNode().getNode(type, identifier).setValue(null);
+                    dirty.set(true);
+                }
                 return save().thenApply(input -> null);
             }
 
@@ -199,8 +285,10 @@ public final class FileDataStore extends AbstractDataStore {
             } else {
                 fileData = ConversionUtils.transfer(data, new FileSubjectData());
             }
-            fileData.serialize(getSubjectsNode().getNode(type, identifier));
-            dirty.set(true);
+            synchronized (this) {
+                fileData.serialize(getSubjectsNode().getNode(type, identifier));
+                dirty.set(true);
+            }
             return save().thenApply(none -> fileData);
         } catch (ObjectMappingException e) {
             return Util.failedFuture(e);
@@ -268,24 +356,28 @@ public final class FileDataStore extends AbstractDataStore {
     @Override
     public CompletableFuture<ContextInheritance> setContextInheritanceInternal(final ContextInheritance inheritance) {
         final MemoryContextInheritance realInheritance = MemoryContextInheritance.fromExistingContextInheritance(inheritance);
-        try {
-            this.permissionsConfig.setValue(TypeToken.of(MemoryContextInheritance.class), realInheritance);
-        } catch (ObjectMappingException e) {
-            throw new RuntimeException(e);
+        synchronized (this) {
+            try {
+                this.permissionsConfig.setValue(TypeToken.of(MemoryContextInheritance.class), realInheritance);
+            } catch (ObjectMappingException e) {
+                throw new RuntimeException(e);
+            }
+            dirty.set(true);
         }
-        dirty.set(true);
         return save().thenApply(none -> realInheritance);
     }
 
     @Override
     public CompletableFuture<RankLadder> setRankLadderInternal(String identifier, RankLadder ladder) {
-        ConfigurationNode childNode = getRankLaddersNode().getNode(identifier.toLowerCase());
-        childNode.setValue(null);
-        for (Map.Entry<String, String> rank : ladder.getRanks()) {
-            childNode.getAppendedNode().setValue(Util.subjectToString(rank));
+        synchronized (this) {
+            ConfigurationNode childNode = getRankLaddersNode().getNode(identifier.toLowerCase());
+            childNode.setValue(null);
+            for (Map.Entry<String, String> rank : ladder.getRanks()) {
+                childNode.getAppendedNode().setValue(Util.subjectToString(rank));
 
+            }
+            dirty.set(true);
         }
-        dirty.set(true);
         return save().thenApply(none -> ladder);
     }
 
@@ -44,7 +44,7 @@ public final class FileSubjectData extends MemorySubjectData {
                     throw new PermissionsLoadingException(t("Each context section must be of map type! Check that no duplicate nesting has occurred."));
                 }
                 Set<Entry<String, String>> contexts = contextsFrom(child);
-                DataEntry value = MAPPER.bindToNew().populate(child);
+                DataEntry value = MAPPER.bindToNew().populate(child).compact();
                 map.put(contexts, value);
             }
         }
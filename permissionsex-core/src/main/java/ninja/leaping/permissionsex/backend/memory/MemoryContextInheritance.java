@@ -87,5 +87,15 @@ public class MemoryContextInheritance implements ContextInheritance {
         }
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof MemoryContextInheritance && this.contextInheritance.equals(((MemoryContextInheritance) o).contextInheritance);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.contextInheritance.hashCode();
+    }
+
 
 }
@@ -61,23 +61,15 @@ public class MemoryDataStore extends AbstractDataStore {
 
     @Override
     public ImmutableSubjectData getDataInternal(String type, String identifier) {
-        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
-        ImmutableSubjectData ret = data.get(key);
-        if (ret == null) {
-            ret = new MemorySubjectData();
-            if (track) {
-                final ImmutableSubjectData existingData = data.putIfAbsent(key, ret);
-                if (existingData != null) {
-                    ret = existingData;
-                }
-            }
-        }
-        return ret;
+        final ImmutableSubjectData ret = data.get(Maps.immutableEntry(type, identifier));
+        return ret == null ? new MemorySubjectData() : ret; // Only data that has been set is stored, so reads do not grow the store
     }
 
     @Override
     public CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, ImmutableSubjectData data) {
-        if (track) {
+        if (data == null) {
+            this.data.remove(Maps.immutableEntry(type, identifier));
+        } else if (track) {
             this.data.put(Maps.immutableEntry(type, identifier), data);
         }
 
@@ -104,6 +96,11 @@ public class MemoryDataStore extends AbstractDataStore {
         return data.containsKey(Maps.immutableEntry(type, identifier));
     }
 
+    @Override
+    protected boolean dispatchChangesAsync() {
+        return false; // Transient data, such as Bukkit attachments, must take effect as soon as it is set
+    }
+
     @Override
     public Iterable<String> getAllIdentifiers(final String type) {
         return Iterables.transform(Maps.filterKeys(data, input -> {
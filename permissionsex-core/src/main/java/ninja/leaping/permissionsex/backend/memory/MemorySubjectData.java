@@ -19,22 +19,27 @@ package ninja.leaping.permissionsex.backend.memory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import ninja.leaping.configurate.objectmapping.ObjectMapper;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.configurate.objectmapping.Setting;
 import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
+import ninja.leaping.permissionsex.data.ImmutablePermissionMap;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.data.SizeEstimates;
+import ninja.leaping.permissionsex.util.Object2IntMap;
 import ninja.leaping.permissionsex.util.Util;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 
 import static java.util.Map.Entry;
 
@@ -48,34 +53,83 @@ public class MemorySubjectData implements ImmutableSubjectData {
         }
     }
 
+    /**
+     * Get a copy of a map with one value replaced. Only the map itself is copied, so this is proportional to the number of
+     * context sets rather than to the amount of data in each of them.
+     */
     protected static <K, V> Map<K, V> updateImmutable(Map<K, V> input, K newKey, V newVal) {
-        if (input == null) {
+        if (input == null || input.isEmpty()) {
             return ImmutableMap.of(newKey, newVal);
         }
-        Map<K, V> ret = new HashMap<>(input);
-        ret.put(newKey, newVal);
-        return Collections.unmodifiableMap(ret);
+        ImmutableMap.Builder<K, V> ret = ImmutableMap.builder();
+        for (Map.Entry<K, V> ent : input.entrySet()) {
+            if (!ent.getKey().equals(newKey)) {
+                ret.put(ent);
+            }
+        }
+        return ret.put(newKey, newVal).build();
     }
 
+    /**
+     * The data for one set of contexts. Permissions are kept in an {@link ImmutablePermissionMap} and options in a sorted array map,
+     * and parents are parsed once rather than on every read.
+     */
     @ConfigSerializable
     protected static class DataEntry {
         @Nullable @Setting private Map<String, Integer> permissions;
         @Nullable @Setting private Map<String, String> options;
         @Nullable @Setting private List<String> parents;
         @Nullable @Setting("permissions-default") private Integer defaultValue;
+        @Nullable private List<Entry<String, String>> parsedParents;
+        private int sizeEstimate;
 
         private DataEntry(@Nullable Map<String, Integer> permissions, @Nullable Map<String, String> options, @Nullable List<String> parents, @Nullable Integer defaultValue) {
-            this.permissions = permissions;
-            this.options = options;
-            this.parents = parents;
+            this.permissions = permissions == null ? null : ImmutablePermissionMap.copyOf(permissions);
+            this.options = options == null ? null : ImmutableSortedMap.copyOf(options);
+            this.parents = parents == null ? null : ImmutableList.copyOf(parents);
             this.defaultValue = defaultValue;
         }
 
         private DataEntry() { // Objectmapper constructor
         }
 
+        /**
+         * Get an entry with the same data as this one stored compactly, for entries populated by an object mapper.
+         *
+         * @return The compacted entry
+         */
+        public DataEntry compact() {
+            return new DataEntry(permissions, options, parents, defaultValue);
+        }
+
+        private ImmutablePermissionMap permissions() {
+            return permissions == null ? ImmutablePermissionMap.of() : ImmutablePermissionMap.copyOf(permissions);
+        }
+
+        @Nullable
+        private List<Entry<String, String>> parsedParents() {
+            if (parsedParents == null && parents != null) {
+                parsedParents = ImmutableList.copyOf(Lists.transform(parents, Util::subjectFromString));
+            }
+            return parsedParents;
+        }
+
+        private int estimateSize() {
+            int ret = sizeEstimate;
+            if (ret == 0) {
+                ret = SizeEstimates.OBJECT + (permissions == null ? 0 : SizeEstimates.ofPermissions(permissions))
+                        + (options == null ? 0 : SizeEstimates.ofOptions(options))
+                        + (parents == null ? 0 : SizeEstimates.ofEntries(parsedParents()))
+                        + (defaultValue == null ? 0 : SizeEstimates.OBJECT);
+                sizeEstimate = ret;
+            }
+            return ret;
+        }
+
         public DataEntry withOption(String key, String value) {
-            return new DataEntry(permissions, updateImmutable(options, key, value), parents, defaultValue);
+            final TreeMap<String, String> newOptions = options == null ? new TreeMap<>() : new TreeMap<>(options);
+            newOptions.put(key, value);
+            return new DataEntry(permissions, newOptions, parents, defaultValue);
         }
 
         public DataEntry withoutOption(String key) {
@@ -83,14 +137,14 @@ public class MemorySubjectData implements ImmutableSubjectData {
                 return this;
             }
 
-            Map<String, String> newOptions = new HashMap<>(options);
+            final TreeMap<String, String> newOptions = new TreeMap<>(options);
             newOptions.remove(key);
             return new DataEntry(permissions, newOptions, parents, defaultValue);
 
         }
 
         public DataEntry withOptions(Map<String, String> values) {
-            return new DataEntry(permissions, values == null ? null : ImmutableMap.copyOf(values), parents, defaultValue);
+            return new DataEntry(permissions, values, parents, defaultValue);
         }
 
         public DataEntry withoutOptions() {
@@ -98,7 +152,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
         }
 
         public DataEntry withPermission(String permission, int value) {
-            return new DataEntry(updateImmutable(permissions, permission, value), options, parents, defaultValue);
+            return new DataEntry(permissions().with(permission, value), options, parents, defaultValue);
 
         }
 
@@ -107,13 +161,11 @@ public class MemorySubjectData implements ImmutableSubjectData {
                 return this;
             }
 
-            Map<String, Integer> newPermissions = new HashMap<>(permissions);
-            newPermissions.remove(permission);
-            return new DataEntry(newPermissions, options, parents, defaultValue);
+            return new DataEntry(permissions().without(permission), options, parents, defaultValue);
         }
 
         public DataEntry withPermissions(Map<String, Integer> values) {
-            return new DataEntry(ImmutableMap.copyOf(values), options, parents, defaultValue);
+            return new DataEntry(values, options, parents, defaultValue);
         }
 
         public DataEntry withoutPermissions() {
@@ -144,13 +196,33 @@ public class MemorySubjectData implements ImmutableSubjectData {
         }
 
         public DataEntry withParents(List<String> transform) {
-            return new DataEntry(permissions, options, transform == null ? null : ImmutableList.copyOf(transform), defaultValue);
+            return new DataEntry(permissions, options, transform, defaultValue);
         }
 
         public DataEntry withoutParents() {
             return new DataEntry(permissions, options, null, defaultValue);
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DataEntry)) {
+                return false;
+            }
+            final DataEntry other = (DataEntry) o;
+            return Objects.equals(this.permissions, other.permissions)
+                    && Objects.equals(this.options, other.options)
+                    && Objects.equals(this.parents, other.parents)
+                    && Objects.equals(this.defaultValue, other.defaultValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(permissions, options, parents, defaultValue);
+        }
+
         @Override
         public String toString() {
             return "DataEntry{" +
@@ -172,6 +244,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
     }
 
     protected final Map<Set<Entry<String, String>>, DataEntry> contexts;
+    private int sizeEstimate;
 
     protected MemorySubjectData() {
         this.contexts = ImmutableMap.of();
@@ -233,9 +306,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<Entry<String, String>>, DataEntry> newValue = Maps.transformValues(this.contexts,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutOptions());
-        return newData(newValue);
+        return newData(ImmutableMap.copyOf(Maps.transformValues(this.contexts, DataEntry::withoutOptions)));
     }
 
     @Override
@@ -250,6 +321,25 @@ public class MemorySubjectData implements ImmutableSubjectData {
         return entry == null || entry.permissions == null ? Collections.<String, Integer>emptyMap() : entry.permissions;
     }
 
+    @Override
+    public int estimateSize() {
+        int ret = this.sizeEstimate;
+        if (ret == 0) { // Entries cache their own estimates, and are shared with the data this was derived from
+            ret = SizeEstimates.OBJECT;
+            for (Map.Entry<Set<Entry<String, String>>, DataEntry> ent : this.contexts.entrySet()) {
+                ret += SizeEstimates.MAP_ENTRY + SizeEstimates.ofContexts(ent.getKey()) + ent.getValue().estimateSize();
+            }
+            this.sizeEstimate = ret;
+        }
+        return ret;
+    }
+
+    @Override
+    public Object2IntMap<String> getPermissionValues(Set<Entry<String, String>> set) {
+        final DataEntry entry = this.contexts.get(set);
+        return entry == null ? ImmutablePermissionMap.of() : entry.permissions();
+    }
+
     @Override
     public ImmutableSubjectData setPermission(Set<Entry<String, String>> contexts, String permission, int value) {
         if (value == 0) {
@@ -270,9 +360,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<Entry<String, String>>, DataEntry> newValue = Maps.transformValues(this.contexts,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutPermissions());
-        return newData(newValue);
+        return newData(ImmutableMap.copyOf(Maps.transformValues(this.contexts, DataEntry::withoutPermissions)));
     }
 
     @Override
@@ -287,13 +375,14 @@ public class MemorySubjectData implements ImmutableSubjectData {
     @Override
     public Map<Set<Entry<String, String>>, List<Entry<String, String>>> getAllParents() {
         return Maps.filterValues(Maps.transformValues(contexts,
-                dataEntry -> dataEntry == null ? null : dataEntry.parents == null ? null : Lists.transform(dataEntry.parents, Util::subjectFromString)), v -> v != null);
+                dataEntry -> dataEntry == null ? null : dataEntry.parsedParents()), v -> v != null);
     }
 
     @Override
     public List<Map.Entry<String, String>> getParents(Set<Entry<String, String>> contexts) {
         DataEntry ent = this.contexts.get(contexts);
-        return ent == null || ent.parents == null ? Collections.<Map.Entry<String, String>>emptyList() : Lists.transform(ent.parents, Util::subjectFromString);
+        final List<Entry<String, String>> parents = ent == null ? null : ent.parsedParents();
+        return parents == null ? Collections.<Map.Entry<String, String>>emptyList() : parents;
     }
 
     @Override
@@ -332,9 +421,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<Entry<String, String>>, DataEntry> newValue = Maps.transformValues(this.contexts,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutParents());
-        return newData(newValue);
+        return newData(ImmutableMap.copyOf(Maps.transformValues(this.contexts, DataEntry::withoutParents)));
     }
 
     @Override
@@ -367,6 +454,20 @@ public class MemorySubjectData implements ImmutableSubjectData {
                 dataEntry -> dataEntry == null ? null : dataEntry.defaultValue), v -> v != null);
     }
 
+    /**
+     * Subject data is equal to other subject data holding the same entries for the same contexts,
+     * whichever backend it was loaded from.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof MemorySubjectData && this.contexts.equals(((MemorySubjectData) o).contexts);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.contexts.hashCode();
+    }
+
     @Override
     public String toString() {
         return "MemoryOptionSubjectData{" +
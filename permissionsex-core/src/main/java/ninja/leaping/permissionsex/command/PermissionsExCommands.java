@@ -108,13 +108,22 @@ public class PermissionsExCommands {
     }
 
     private static CommandSpec getDebugToggleCommand(final PermissionsEx pex) {
+        final CommandElement children = ChildCommands.args(TraceCommands.getTraceCommand(pex),
+                                                           TraceCommands.getStopTraceCommand(pex),
+                                                           TraceCommands.getDumpTraceCommand(pex),
+                                                           TraceCommands.getProfileCommand(pex));
         return CommandSpec.builder()
                 .setAliases("debug", "d")
-                .setDescription(t("Toggle debug mode"))
+                .setDescription(t("Toggle debug mode, or record permission checks"))
+                .setArguments(optional(children))
                 .setPermission("permissionsex.debug")
                 .setExecutor(new CommandExecutor() {
                     @Override
                     public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        if (args.hasAny(children.getKey().getUntranslated())) {
+                            ChildCommands.executor(children).execute(src, args);
+                            return;
+                        }
                        boolean debugEnabled = !pex.hasDebugMode();
                         pex.setDebugMode(debugEnabled);
                         src.msg(t("Debug mode enabled: %s", src.fmt().booleanVal(debugEnabled)));
@@ -0,0 +1,152 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.command;
+
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.logging.PermissionProfiler;
+import ninja.leaping.permissionsex.logging.TraceRecorder;
+import ninja.leaping.permissionsex.util.Util;
+import ninja.leaping.permissionsex.util.command.CommandContext;
+import ninja.leaping.permissionsex.util.command.CommandException;
+import ninja.leaping.permissionsex.util.command.CommandExecutor;
+import ninja.leaping.permissionsex.util.command.CommandSpec;
+import ninja.leaping.permissionsex.util.command.Commander;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static ninja.leaping.permissionsex.util.Translations.t;
+import static ninja.leaping.permissionsex.util.command.args.GameArguments.subject;
+import static ninja.leaping.permissionsex.util.command.args.GenericArguments.*;
+
+/**
+ * Commands to trace and profile permission checks
+ */
+public class TraceCommands {
+    private static final int REPORT_SIZE = 10;
+
+    public static CommandSpec getTraceCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("trace", "t")
+                .setDescription(t("Start recording permission checks, optionally only for one subject or for nodes starting with a prefix"))
+                .setArguments(flags()
+                        .valueFlag(subject(t("subject"), pex), "-subject", "s")
+                        .valueFlag(string(t("node")), "-node", "n")
+                        .buildWith(none()))
+                .setPermission("permissionsex.debug.trace")
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        final Map.Entry<String, String> subject = args.getOne("subject");
+                        final String node = args.getOne("node");
+                        pex.getTraceRecorder().start(subject, node);
+                        src.msg(t("Recording permission checks for %s, nodes starting with %s",
+                                subject == null ? src.fmt().tr(t("all subjects")) : src.fmt().subject(subject),
+                                src.fmt().hl(src.fmt().combined(node == null ? "*" : node))));
+                    }
+                })
+                .build();
+    }
+
+    public static CommandSpec getStopTraceCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("stoptrace", "st")
+                .setDescription(t("Stop recording permission checks. Recorded checks are kept until dumped"))
+                .setPermission("permissionsex.debug.trace")
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        pex.getTraceRecorder().stop();
+                        src.msg(t("Stopped recording permission checks"));
+                    }
+                })
+                .build();
+    }
+
+    public static CommandSpec getDumpTraceCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("dump")
+                .setDescription(t("Write recorded permission checks to a file"))
+                .setPermission("permissionsex.debug.trace")
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        final File dumpFile = new File(new File(pex.getBaseDirectory(), "traces"), "trace-" + System.currentTimeMillis() + ".txt");
+                        Util.asyncFailableFuture(() -> dump(pex.getTraceRecorder(), dumpFile), pex.getAsyncExecutor()).thenAccept(count -> {
+                            src.msg(t("Wrote %s recorded checks to %s", count, dumpFile.getPath()));
+                        }).exceptionally(err -> {
+                            src.error(t("Unable to write recorded checks: %s", err.getMessage()));
+                            pex.getLogger().error(t("Unable to write recorded checks to %s", dumpFile), err);
+                            return null;
+                        });
+                    }
+                })
+                .build();
+    }
+
+    public static CommandSpec getProfileCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("profile", "prof")
+                .setDescription(t("Show the most frequently checked permissions, and those most often checked without a value set"))
+                .setArguments(flags()
+                        .flag("-reset", "r")
+                        .buildWith(none()))
+                .setPermission("permissionsex.debug.profile")
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        final PermissionProfiler profiler = pex.getProfiler();
+                        if (profiler == null) {
+                            throw new CommandException(t("The profiler is disabled. Set profiler-sample-rate in the configuration to enable it"));
+                        }
+                        if (args.hasAny("reset")) {
+                            profiler.reset();
+                            src.msg(t("Profiler counts have been reset"));
+                            return;
+                        }
+
+                        src.msg(t("Most checked permissions (sampling 1 in %s checks):", profiler.getSampleRate()));
+                        for (PermissionProfiler.NodeRate rate : profiler.getTopNodes(REPORT_SIZE, false)) {
+                            src.msg(src.fmt().combined("  ", src.fmt().hl(src.fmt().combined(rate.getNode())), ": ", String.format("%.1f", rate.getChecksPerSecond()), "/s"));
+                        }
+                        src.msg(t("Permissions most often checked without a value set:"));
+                        for (PermissionProfiler.NodeRate rate : profiler.getTopNodes(REPORT_SIZE, true)) {
+                            src.msg(src.fmt().combined("  ", src.fmt().hl(src.fmt().combined(rate.getNode())), ": ", String.format("%.1f", rate.getUndefinedPerSecond()), "/s"));
+                        }
+                    }
+                })
+                .build();
+    }
+
+    private static int dump(TraceRecorder recorder, File dumpFile) throws IOException {
+        final List<TraceRecorder.Trace> traces = recorder.snapshot();
+        final List<String> lines = new ArrayList<>(traces.size());
+        final long start = traces.isEmpty() ? 0 : traces.get(0).getNanos();
+        for (TraceRecorder.Trace trace : traces) {
+            lines.add("+" + TimeUnit.NANOSECONDS.toMicros(trace.getNanos() - start) + "us " + trace);
+        }
+        Files.createDirectories(dumpFile.getParentFile().toPath());
+        Files.write(dumpFile.toPath(), lines, StandardCharsets.UTF_8);
+        return traces.size();
+    }
+}
@@ -53,6 +53,12 @@ public class FilePermissionsExConfiguration implements PermissionsExConfiguratio
     @Setting("default-backend") private String defaultBackend;
     @Setting private boolean debug;
     @Setting("server-tags") private List<String> serverTags;
+    @Setting("cache-memory-budget") private int cacheMemoryBudget;
+    @Setting("memory-pressure-threshold") private double memoryPressureThreshold;
+    @Setting("profiler-sample-rate") private int profilerSampleRate;
+    @Setting("profiler-report-interval") private int profilerReportInterval;
+    @Setting("quit-grace-period") private int quitGracePeriod;
+    @Setting("refresh-interval") private int refreshInterval;
 
     protected FilePermissionsExConfiguration(ConfigurationLoader<?> loader, ConfigurationNode node) {
         this.loader = loader;
@@ -104,6 +110,36 @@ public class FilePermissionsExConfiguration implements PermissionsExConfiguratio
         return Collections.unmodifiableList(serverTags);
     }
 
+    @Override
+    public long getCacheMemoryBudget() {
+        return cacheMemoryBudget * 1024L * 1024L;
+    }
+
+    @Override
+    public double getMemoryPressureThreshold() {
+        return memoryPressureThreshold;
+    }
+
+    @Override
+    public int getProfilerSampleRate() {
+        return profilerSampleRate;
+    }
+
+    @Override
+    public int getProfilerReportInterval() {
+        return profilerReportInterval;
+    }
+
+    @Override
+    public int getQuitGracePeriod() {
+        return quitGracePeriod;
+    }
+
+    @Override
+    public int getRefreshInterval() {
+        return refreshInterval;
+    }
+
     @Override
     public void validate() throws PEBKACException {
         if (backends.isEmpty()) {
@@ -116,6 +152,30 @@ public class FilePermissionsExConfiguration implements PermissionsExConfiguratio
         if (!backends.containsKey(defaultBackend)) {
             throw new PEBKACException(t("Default backend % is not an available backend! Choices are: %s", defaultBackend, backends.keySet()));
         }
+
+        if (cacheMemoryBudget <= 0) {
+            throw new PEBKACException(t("Cache memory budget must be positive, but was %s MB", cacheMemoryBudget));
+        }
+
+        if (memoryPressureThreshold < 0 || memoryPressureThreshold >= 1) {
+            throw new PEBKACException(t("Memory pressure threshold must be at least 0 and less than 1, but was %s", memoryPressureThreshold));
+        }
+
+        if (profilerSampleRate < 0 || Integer.bitCount(profilerSampleRate) > 1) {
+            throw new PEBKACException(t("Profiler sample rate must be 0 or a power of two, but was %s", profilerSampleRate));
+        }
+
+        if (profilerReportInterval < 0) {
+            throw new PEBKACException(t("Profiler report interval must not be negative, but was %s", profilerReportInterval));
+        }
+
+        if (quitGracePeriod < 0) {
+            throw new PEBKACException(t("Quit grace period must not be negative, but was %s", quitGracePeriod));
+        }
+
+        if (refreshInterval < 0) {
+            throw new PEBKACException(t("Refresh interval must not be negative, but was %s", refreshInterval));
+        }
     }
 
     @Override
@@ -34,6 +34,49 @@ public interface PermissionsExConfiguration {
 
     List<String> getServerTags();
 
+    /**
+     * Get the estimated amount of memory, in bytes, that all cached subject and rank ladder data may use.
+     *
+     * @return The cache memory budget in bytes
+     */
+    long getCacheMemoryBudget();
+
+    /**
+     * Get the fraction of the heap that has to be in use before baked data for offline subjects is released.
+     *
+     * @return The memory pressure threshold, or 0 if baked data should never be released early
+     */
+    double getMemoryPressureThreshold();
+
+    /**
+     * Get how many permission checks each sample taken by the profiler represents.
+     *
+     * @return The profiler sample rate, or 0 if the profiler is disabled
+     */
+    int getProfilerSampleRate();
+
+    /**
+     * Get the number of seconds between profiler summaries written to the log.
+     *
+     * @return The profiler report interval in seconds, or 0 to never log summaries
+     */
+    int getProfilerReportInterval();
+
+    /**
+     * Get the number of seconds cached data for a player is kept after they disconnect, in case they reconnect soon.
+     *
+     * @return The grace period in seconds, or 0 to release data as soon as a player disconnects
+     */
+    int getQuitGracePeriod();
+
+    /**
+     * Get the number of seconds after which cached subject data that is still in use is checked against the backend
+     * for changes made elsewhere, such as by another server sharing the same backend.
+     *
+     * @return The refresh interval in seconds, or 0 to never check cached data for changes
+     */
+    int getRefreshInterval();
+
     void validate() throws PEBKACException;
 
     PermissionsExConfiguration reload() throws IOException;
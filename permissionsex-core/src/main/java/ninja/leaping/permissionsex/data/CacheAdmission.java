@@ -0,0 +1,75 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import ninja.leaping.permissionsex.util.FrequencySketch;
+
+import java.util.function.Predicate;
+
+/**
+ * Decides whether a value that is not yet cached is worth caching when it is requested, so that one-off scans over many keys
+ * (listing every subject, or a plugin iterating offline players) pass through without pushing out the entries that are actually in use.
+ *
+ * While the {@link CacheBudget} has room every value is cached. Once it is full, only values for pinned keys and for keys
+ * that have been requested recently are.
+ *
+ * @param <K> The key type
+ */
+public class CacheAdmission<K> {
+    private static final int EXPECTED_KEYS = 1024;
+    /**
+     * The number of recent requests for a key needed before its value is cached while the budget is full.
+     */
+    private static final int ADMISSION_FREQUENCY = 2;
+
+    private final CacheBudget budget;
+    private final Predicate<? super K> pinned;
+    private final FrequencySketch frequencies = new FrequencySketch(EXPECTED_KEYS);
+
+    /**
+     * Create a new admission policy.
+     *
+     * @param budget The budget the cache's entries count against
+     * @param pinned A test for keys whose values are always cached
+     */
+    public CacheAdmission(CacheBudget budget, Predicate<? super K> pinned) {
+        this.budget = Preconditions.checkNotNull(budget, "budget");
+        this.pinned = Preconditions.checkNotNull(pinned, "pinned");
+    }
+
+    /**
+     * Record a request for a key whose value is not cached, and decide whether its value should be cached.
+     *
+     * @param key The requested key
+     * @return Whether the value for the key should be cached
+     */
+    public boolean admit(K key) {
+        frequencies.increment(key);
+        return isAdmissible(key);
+    }
+
+    /**
+     * Decide whether a value should be cached without recording a request for its key, such as for values loaded in bulk.
+     *
+     * @param key The key
+     * @return Whether the value for the key should be cached
+     */
+    public boolean isAdmissible(K key) {
+        return budget.hasRoom() || pinned.test(key) || frequencies.frequency(key) >= ADMISSION_FREQUENCY;
+    }
+}
@@ -0,0 +1,336 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.ForwardingLoadingCache;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * A memory budget shared between caches. Each participating cache estimates the size of its entries with a {@link Weigher}.
+ * Once the combined estimated size of all caches exceeds the budget, every cache is trimmed by the same fraction of its own size,
+ * removing the entries that have gone unused the longest first.
+ */
+public class CacheBudget {
+    /**
+     * The fraction of the budget usage is brought down to when trimming, so that trims do not happen on every load near the limit.
+     */
+    private static final double TRIM_TARGET = 0.9;
+    /**
+     * How far apart two accesses to an entry have to be for the later one to be recorded, so that hot entries
+     * do not write to the access index on every read.
+     */
+    private static final long ACCESS_RESOLUTION = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Executor executor;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Set<MemberReference> members = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Member> collectedMembers = new ReferenceQueue<>();
+    private final AtomicBoolean trimming = new AtomicBoolean();
+    private volatile long maximumBytes;
+
+    /**
+     * Create a new cache budget.
+     *
+     * @param maximumBytes The maximum estimated size of all caches in this budget, in bytes
+     * @param executor The executor to trim caches on
+     */
+    public CacheBudget(long maximumBytes, Executor executor) {
+        Preconditions.checkArgument(maximumBytes > 0, "maximumBytes must be positive");
+        this.maximumBytes = maximumBytes;
+        this.executor = Preconditions.checkNotNull(executor, "executor");
+    }
+
+    public long getMaximumBytes() {
+        return this.maximumBytes;
+    }
+
+    public void setMaximumBytes(long maximumBytes) {
+        Preconditions.checkArgument(maximumBytes > 0, "maximumBytes must be positive");
+        this.maximumBytes = maximumBytes;
+        checkUsage();
+    }
+
+    public long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+
+    /**
+     * Whether the caches in this budget can take on more entries without causing other entries to be trimmed.
+     *
+     * @return Whether usage is below the level usage is trimmed down to
+     */
+    public boolean hasRoom() {
+        return this.usedBytes.get() < (long) (this.maximumBytes * TRIM_TARGET);
+    }
+
+    /**
+     * Build a cache whose entries count against this budget. Reads through the returned cache's own methods record
+     * which entries are in use, reads through its {@link LoadingCache#asMap() map view} do not.
+     *
+     * @param builder The builder to apply settings from
+     * @param weigher The size estimator for entries in this cache
+     * @param loader The loader for the cache
+     * @param <K> The key type
+     * @param <V> The value type
+     * @return The newly built cache
+     */
+    public <K, V> LoadingCache<K, V> build(CacheBuilder<Object, Object> builder, Weigher<? super K, ? super V> weigher, CacheLoader<? super K, V> loader) {
+        return build(builder, weigher, loader, key -> false);
+    }
+
+    /**
+     * Build a cache whose entries count against this budget, with some entries that are kept when caches are trimmed.
+     * Retained entries still count against the budget. The cache has no size limit of its own, so its size is only
+     * limited by the budget, which never removes retained entries.
+     *
+     * @param builder The builder to apply settings from
+     * @param weigher The size estimator for entries in this cache
+     * @param loader The loader for the cache
+     * @param retained A test for keys whose entries are never removed to bring usage back within the budget
+     * @param <K> The key type
+     * @param <V> The value type
+     * @return The newly built cache
+     */
+    public <K, V> LoadingCache<K, V> build(CacheBuilder<Object, Object> builder, Weigher<? super K, ? super V> weigher, CacheLoader<? super K, V> loader, Predicate<? super K> retained) {
+        final CacheMember<K, V> member = new CacheMember<>(weigher, retained);
+        final CacheBuilder<K, V> weighted = builder.maximumWeight(Long.MAX_VALUE).<K, V>weigher(member::weigh); // Weights are only tracked, the budget does the evicting
+        final LoadingCache<K, V> cache = weighted.<K, V>removalListener(notification -> {
+                    if (notification.getKey() != null && notification.getValue() != null) {
+                        member.remove(weigher.weigh(notification.getKey(), notification.getValue()));
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            member.lastAccess.remove(notification.getKey());
+                        }
+                    }
+                })
+                .build(loader);
+        member.cache = cache;
+        return new AccessRecordingCache<>(cache, member);
+    }
+
+    /**
+     * Check whether the caches in this budget are using more than their allocated memory, and trim them if so.
+     * This check is cheap, and should be performed after operations that can add entries to a cache.
+     */
+    public void checkUsage() {
+        Reference<? extends Member> collected;
+        while ((collected = collectedMembers.poll()) != null) { // Caches that were discarded without being emptied
+            if (members.remove(collected)) {
+                usedBytes.addAndGet(-((MemberReference) collected).weight.getAndSet(0));
+            }
+        }
+        if (this.usedBytes.get() > this.maximumBytes && trimming.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        trim();
+                    } finally {
+                        trimming.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                trimming.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void trim() {
+        final long used = this.usedBytes.get(), target = (long) (this.maximumBytes * TRIM_TARGET);
+        if (used <= target) {
+            return;
+        }
+        final double fraction = (used - target) / (double) used;
+        for (MemberReference ref : members) {
+            Member member = ref.get();
+            if (member != null) {
+                member.trim(fraction);
+            }
+        }
+    }
+
+    /**
+     * A single cache participating in a budget.
+     */
+    public abstract class Member {
+        private final AtomicLong weight = new AtomicLong();
+
+        protected Member() {
+            members.add(new MemberReference(this));
+        }
+
+        public long getWeight() {
+            return this.weight.get();
+        }
+
+        public int add(int bytes) {
+            this.weight.addAndGet(bytes);
+            usedBytes.addAndGet(bytes);
+            return bytes;
+        }
+
+        public void remove(int bytes) {
+            this.weight.addAndGet(-bytes);
+            usedBytes.addAndGet(-bytes);
+        }
+
+        /**
+         * Remove entries from this cache until at least the given fraction of its size has been released.
+         *
+         * @param fraction The fraction of this cache's size to release
+         */
+        protected abstract void trim(double fraction);
+    }
+
+    private class MemberReference extends WeakReference<Member> {
+        private final AtomicLong weight;
+
+        private MemberReference(Member referent) {
+            super(referent, collectedMembers);
+            this.weight = referent.weight;
+        }
+    }
+
+    private class CacheMember<K, V> extends Member {
+        private final Weigher<? super K, ? super V> weigher;
+        private final Predicate<? super K> retained;
+        private final ConcurrentMap<Object, Long> lastAccess = new ConcurrentHashMap<>();
+        private volatile Cache<K, V> cache;
+
+        private CacheMember(Weigher<? super K, ? super V> weigher, Predicate<? super K> retained) {
+            this.weigher = weigher;
+            this.retained = retained;
+        }
+
+        private int weigh(K key, V value) {
+            return add(weigher.weigh(key, value));
+        }
+
+        private void recordAccess(Object key) {
+            final long now = System.nanoTime();
+            final Long last = this.lastAccess.get(key);
+            if (last == null || now - last >= ACCESS_RESOLUTION) {
+                this.lastAccess.put(key, now);
+            }
+        }
+
+        @Override
+        protected void trim(double fraction) {
+            final Cache<K, V> cache = this.cache;
+            if (cache == null) {
+                return;
+            }
+            final long goal = getWeight() - (long) (getWeight() * fraction);
+            final List<Map.Entry<K, Long>> candidates = new ArrayList<>();
+            for (K key : cache.asMap().keySet()) {
+                if (!retained.test(key)) {
+                    final Long accessed = this.lastAccess.get(key);
+                    candidates.add(new AbstractMap.SimpleImmutableEntry<>(key, accessed == null ? Long.MIN_VALUE : accessed));
+                }
+            }
+            candidates.sort((a, b) -> Long.compare(a.getValue(), b.getValue()));
+            for (int i = 0; i < candidates.size() && getWeight() > goal; ++i) {
+                cache.invalidate(candidates.get(i).getKey());
+            }
+        }
+    }
+
+    /**
+     * A view of a cache that records accesses to its entries with the budget, so that trimming can remove the least recently used entries.
+     */
+    private static class AccessRecordingCache<K, V> extends ForwardingLoadingCache.SimpleForwardingLoadingCache<K, V> {
+        private final CacheMember<K, V> member;
+
+        private AccessRecordingCache(LoadingCache<K, V> delegate, CacheMember<K, V> member) {
+            super(delegate);
+            this.member = member;
+        }
+
+        @Override
+        public V get(K key) throws ExecutionException {
+            final V ret = super.get(key);
+            member.recordAccess(key);
+            return ret;
+        }
+
+        @Override
+        public V getUnchecked(K key) {
+            final V ret = super.getUnchecked(key);
+            member.recordAccess(key);
+            return ret;
+        }
+
+        @Override
+        public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+            final V ret = super.get(key, valueLoader);
+            member.recordAccess(key);
+            return ret;
+        }
+
+        @Override
+        public ImmutableMap<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+            final ImmutableMap<K, V> ret = super.getAll(keys);
+            ret.keySet().forEach(member::recordAccess);
+            return ret;
+        }
+
+        @Override
+        public V getIfPresent(Object key) {
+            final V ret = super.getIfPresent(key);
+            if (ret != null) {
+                member.recordAccess(key);
+            }
+            return ret;
+        }
+
+        @Override
+        public void put(K key, V value) {
+            super.put(key, value);
+            member.recordAccess(key);
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> values) {
+            super.putAll(values);
+            values.keySet().forEach(member::recordAccess);
+        }
+    }
+}
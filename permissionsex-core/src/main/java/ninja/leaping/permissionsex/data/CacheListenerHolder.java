@@ -17,27 +17,43 @@
 package ninja.leaping.permissionsex.data;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.MapMaker;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+/**
+ * A registry of listeners to notify when cached data changes, keyed by the data they listen to.
+ *
+ * Listeners are only weakly referenced. Listeners that have been garbage collected are removed as part of later operations,
+ * and keys are dropped as soon as they have no listeners left, so keys that were once listened to do not accumulate.
+ * Notifying a key is lock-free, and does not allocate if the key has no listeners.
+ *
+ * @param <Key> The type of key listeners are registered for
+ * @param <CacheType> The type of data passed to listeners
+ */
 public class CacheListenerHolder<Key, CacheType> {
-    private final ConcurrentMap<Key, Set<Caching<CacheType>>> listeners = new MapMaker().concurrencyLevel(10).makeMap();
-
-    private Set<Caching<CacheType>> getListeners(Key key) {
-        Preconditions.checkNotNull(key, "key");
-
-        return listeners.computeIfAbsent(key, k -> Collections.newSetFromMap(new MapMaker().weakKeys().concurrencyLevel(10).makeMap()));
-    }
+    private final ConcurrentMap<Key, Set<ListenerReference<Key, CacheType>>> listeners = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Caching<CacheType>> collectedListeners = new ReferenceQueue<>();
 
     public void call(Key key, CacheType newData) {
         Preconditions.checkNotNull(key, "key");
         Preconditions.checkNotNull(newData, "newData");
 
-        for (Caching<CacheType> listener : getListeners(key)) {
-            listener.clearCache(newData);
+        expungeCollected();
+        final Set<ListenerReference<Key, CacheType>> keyListeners = listeners.get(key);
+        if (keyListeners == null) {
+            return;
+        }
+        for (ListenerReference<Key, CacheType> ref : keyListeners) {
+            final Caching<CacheType> listener = ref.get();
+            if (listener != null) {
+                listener.clearCache(newData);
+            }
         }
     }
 
@@ -45,14 +61,23 @@ public class CacheListenerHolder<Key, CacheType> {
         Preconditions.checkNotNull(key, "key");
         Preconditions.checkNotNull(listener, "listener");
 
-        getListeners(key).add(listener);
+        expungeCollected();
+        final ListenerReference<Key, CacheType> ref = new ListenerReference<>(key, listener, collectedListeners);
+        listeners.compute(key, (k, existing) -> {
+            if (existing == null) {
+                existing = ConcurrentHashMap.newKeySet();
+            }
+            existing.add(ref);
+            return existing;
+        });
     }
 
     public void removeListener(Key key, Caching<CacheType> listener) {
         Preconditions.checkNotNull(key, "key");
         Preconditions.checkNotNull(listener, "listener");
 
-        getListeners(key).remove(listener);
+        expungeCollected();
+        remove(key, new ListenerReference<>(key, listener, null));
     }
 
     public Iterable<Key> getAllKeys() {
@@ -62,4 +87,51 @@ public class CacheListenerHolder<Key, CacheType> {
     public void removeAll(Key key) {
         listeners.remove(key);
     }
+
+    private void remove(Key key, ListenerReference<Key, CacheType> ref) {
+        listeners.computeIfPresent(key, (k, existing) -> {
+            existing.remove(ref);
+            return existing.isEmpty() ? null : existing;
+        });
+    }
+
+    @SuppressWarnings("unchecked") // Only references created by this holder are registered with the queue
+    private void expungeCollected() {
+        Reference<? extends Caching<CacheType>> collected;
+        while ((collected = collectedListeners.poll()) != null) {
+            final ListenerReference<Key, CacheType> ref = (ListenerReference<Key, CacheType>) collected;
+            remove(ref.key, ref);
+        }
+    }
+
+    /**
+     * A weak reference to a listener, comparing equal to any other reference to the same listener.
+     */
+    private static class ListenerReference<Key, CacheType> extends WeakReference<Caching<CacheType>> {
+        private final Key key;
+        private final int hash;
+
+        private ListenerReference(Key key, Caching<CacheType> referent, ReferenceQueue<Caching<CacheType>> queue) {
+            super(referent, queue);
+            this.key = key;
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof ListenerReference)) {
+                return false;
+            }
+            final Object referent = get();
+            return referent != null && referent == ((ListenerReference<?, ?>) other).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
 }
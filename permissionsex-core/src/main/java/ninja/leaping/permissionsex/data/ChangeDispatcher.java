@@ -0,0 +1,128 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers change events to the listeners in a {@link CacheListenerHolder} on an executor, so the thread posting a change
+ * does not have to perform the invalidation work of every listener.
+ *
+ * Events for the same key are delivered in the order they were posted, and never concurrently. Events posted for a key
+ * while an earlier event for it is still waiting to be delivered are merged, so that listeners only see the latest value.
+ *
+ * @param <Key> The type of key changes are posted for
+ * @param <CacheType> The type of data passed to listeners
+ */
+public class ChangeDispatcher<Key, CacheType> {
+    private final CacheListenerHolder<Key, CacheType> listeners;
+    private final Executor executor;
+    private final ConcurrentMap<Key, PendingChange<CacheType>> pending = new ConcurrentHashMap<>();
+
+    public ChangeDispatcher(CacheListenerHolder<Key, CacheType> listeners, Executor executor) {
+        this.listeners = Preconditions.checkNotNull(listeners, "listeners");
+        this.executor = Preconditions.checkNotNull(executor, "executor");
+    }
+
+    public CacheListenerHolder<Key, CacheType> getListeners() {
+        return this.listeners;
+    }
+
+    /**
+     * Post a change to be delivered to the listeners for a key.
+     *
+     * @param key The key that changed
+     * @param newData The new data for the key
+     * @return A future completing once the listeners have been notified of this change, or of a later one that replaced it
+     */
+    public CompletableFuture<Void> post(Key key, CacheType newData) {
+        Preconditions.checkNotNull(key, "key");
+        Preconditions.checkNotNull(newData, "newData");
+
+        final CompletableFuture<Void> ret = new CompletableFuture<>();
+        while (true) {
+            final PendingChange<CacheType> change = pending.computeIfAbsent(key, k -> new PendingChange<>());
+            synchronized (change) {
+                if (change.retired) {
+                    continue;
+                }
+                change.latest = newData;
+                change.waiting.add(ret);
+                if (change.scheduled) {
+                    return ret;
+                }
+                change.scheduled = true;
+            }
+            try {
+                executor.execute(() -> deliver(key, change));
+            } catch (RuntimeException e) {
+                deliver(key, change); // Executor unavailable, deliver on the posting thread instead
+            }
+            return ret;
+        }
+    }
+
+    private void deliver(Key key, PendingChange<CacheType> change) {
+        while (true) {
+            final CacheType data;
+            final List<CompletableFuture<Void>> waiting;
+            synchronized (change) {
+                if (change.latest == null) {
+                    change.scheduled = false;
+                    change.retired = true;
+                    pending.remove(key, change);
+                    return;
+                }
+                data = change.latest;
+                waiting = change.waiting;
+                change.latest = null;
+                change.waiting = new ArrayList<>();
+            }
+
+            Throwable error = null;
+            try {
+                listeners.call(key, data);
+            } catch (Throwable t) {
+                error = t;
+            }
+            for (CompletableFuture<Void> future : waiting) {
+                if (error == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * The change waiting to be delivered for a single key. Guarded by its own monitor.
+     */
+    private static class PendingChange<CacheType> {
+        private CacheType latest;
+        private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        private boolean scheduled;
+        private boolean retired; // Removed from the map of pending changes, so new changes must use a fresh instance
+    }
+}
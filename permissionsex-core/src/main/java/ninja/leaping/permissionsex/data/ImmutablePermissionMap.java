@@ -0,0 +1,549 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import ninja.leaping.permissionsex.util.Object2IntMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * An immutable map of permissions to their values, stored as sorted arrays of permissions with parallel arrays of primitive values.
+ * Lookups are a binary search, and no boxed values are held, so this takes much less memory than a {@link java.util.HashMap}.
+ *
+ * Larger maps are split into a tree of such arrays, each holding at most {@value #NODE_SIZE} entries. Maps created by
+ * {@link #with(String, int)} and {@link #without(String)} share every array except those on the path to the changed permission
+ * with the original map, so a single change takes logarithmic rather than linear time.
+ *
+ * Values are only boxed when this map is read through the {@link Map} interface. {@link #getInt(Object, int)}
+ * and {@link #forEachInt(ObjIntConsumer)} read values without boxing.
+ */
+public final class ImmutablePermissionMap extends AbstractMap<String, Integer> implements Object2IntMap<String> {
+    static final int NODE_SIZE = 32;
+    private static final ImmutablePermissionMap EMPTY = new ImmutablePermissionMap(new Leaf(new String[0], new int[0]), 0);
+
+    private final Node root;
+    private final int size;
+    private Set<Entry<String, Integer>> entrySet;
+
+    private ImmutablePermissionMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static ImmutablePermissionMap of() {
+        return EMPTY;
+    }
+
+    /**
+     * Get a permission map containing the same permissions as an existing map. Permissions with null values are skipped.
+     *
+     * @param permissions The map to copy
+     * @return A permission map with the same contents
+     */
+    public static ImmutablePermissionMap copyOf(Map<String, Integer> permissions) {
+        Preconditions.checkNotNull(permissions, "permissions");
+        if (permissions instanceof ImmutablePermissionMap) {
+            return (ImmutablePermissionMap) permissions;
+        }
+        if (permissions.isEmpty()) {
+            return EMPTY;
+        }
+
+        String[] keys = new String[permissions.size()];
+        int count = 0;
+        for (Map.Entry<String, Integer> ent : permissions.entrySet()) {
+            if (ent.getValue() != null) {
+                keys[count++] = Preconditions.checkNotNull(ent.getKey(), "permission");
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(keys, 0, count);
+        final int[] values = new int[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = permissions.get(keys[i]);
+        }
+
+        // Build full leaves, then the levels of branches above them
+        Node[] level = new Node[(count + NODE_SIZE - 1) / NODE_SIZE];
+        for (int i = 0; i < level.length; ++i) {
+            final int from = i * NODE_SIZE, to = Math.min(count, from + NODE_SIZE);
+            level[i] = new Leaf(Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(values, from, to));
+        }
+        while (level.length > 1) {
+            final Node[] parents = new Node[(level.length + NODE_SIZE - 1) / NODE_SIZE];
+            for (int i = 0; i < parents.length; ++i) {
+                final int from = i * NODE_SIZE, to = Math.min(level.length, from + NODE_SIZE);
+                parents[i] = Branch.of(Arrays.copyOfRange(level, from, to));
+            }
+            level = parents;
+        }
+        return new ImmutablePermissionMap(level[0], count);
+    }
+
+    @Override
+    public int getInt(Object permission, int defaultValue) {
+        return permission instanceof String ? this.root.get((String) permission, defaultValue) : defaultValue;
+    }
+
+    /**
+     * Get a map with a permission set to the given value.
+     *
+     * @param permission The permission to set
+     * @param value The new value
+     * @return A map with the permission set, which is this map if the value is unchanged
+     */
+    public ImmutablePermissionMap with(String permission, int value) {
+        Preconditions.checkNotNull(permission, "permission");
+        final boolean present = containsKey(permission);
+        if (present && this.root.get(permission, 0) == value) {
+            return this;
+        }
+        final Node[] result = this.root.with(permission, value);
+        final Node newRoot = result.length == 1 ? result[0] : Branch.of(result);
+        return new ImmutablePermissionMap(newRoot, present ? this.size : this.size + 1);
+    }
+
+    /**
+     * Get a map without the given permission.
+     *
+     * @param permission The permission to remove
+     * @return A map without the permission, which is this map if it was not present
+     */
+    public ImmutablePermissionMap without(String permission) {
+        if (!containsKey(permission)) {
+            return this;
+        } else if (this.size == 1) {
+            return EMPTY;
+        }
+        Node newRoot = this.root.without(permission);
+        while (newRoot instanceof Branch && ((Branch) newRoot).children.length == 1) {
+            newRoot = ((Branch) newRoot).children[0];
+        }
+        return new ImmutablePermissionMap(newRoot, this.size - 1);
+    }
+
+    /**
+     * Perform an action for every permission in this map, in sorted order, without boxing values.
+     *
+     * @param action The action to perform
+     */
+    @Override
+    public void forEachInt(ObjIntConsumer<? super String> action) {
+        this.root.forEach(action);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Integer> action) {
+        this.root.forEach(action::accept);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && this.root.contains((String) key);
+    }
+
+    @Override
+    public Integer get(Object key) {
+        return containsKey(key) ? this.root.get((String) key, 0) : null;
+    }
+
+    /**
+     * Get an estimate of this map's heap usage, in bytes. Estimates are kept with the arrays they describe,
+     * so a map derived from another by a single change only has to estimate the arrays that changed.
+     *
+     * @return The estimated size
+     * @see SizeEstimates
+     */
+    int estimateSize() {
+        return SizeEstimates.OBJECT + this.root.estimateSize();
+    }
+
+    @Override
+    public Set<Entry<String, Integer>> entrySet() {
+        Set<Entry<String, Integer>> ret = this.entrySet;
+        if (ret == null) {
+            this.entrySet = ret = new AbstractSet<Entry<String, Integer>>() {
+                @Override
+                public Iterator<Entry<String, Integer>> iterator() {
+                    return new EntryIterator(root);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof ImmutablePermissionMap) {
+            final ImmutablePermissionMap other = (ImmutablePermissionMap) o;
+            if (this.size != other.size) {
+                return false;
+            }
+            final EntryIterator mine = new EntryIterator(this.root), theirs = new EntryIterator(other.root);
+            while (mine.advance() && theirs.advance()) {
+                if (!mine.key().equals(theirs.key()) || mine.value() != theirs.value()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        final int[] hash = new int[1];
+        this.root.forEach((key, value) -> hash[0] += key.hashCode() ^ value);
+        return hash[0];
+    }
+
+    private static abstract class Node {
+        private int estimate; // Computed on first use, racy but idempotent
+
+        final int estimateSize() {
+            int ret = this.estimate;
+            if (ret == 0) {
+                this.estimate = ret = computeEstimate();
+            }
+            return ret;
+        }
+
+        abstract int computeEstimate();
+
+        abstract String firstKey();
+
+        abstract boolean contains(String key);
+
+        abstract int get(String key, int defaultValue);
+
+        /**
+         * Set a value in the subtree rooted at this node.
+         *
+         * @return The replacement for this node, or two nodes if it had to be split
+         */
+        abstract Node[] with(String key, int value);
+
+        /**
+         * Remove a key that is known to be present from the subtree rooted at this node.
+         *
+         * @return The replacement for this node, or null if it is now empty
+         */
+        abstract Node without(String key);
+
+        abstract void forEach(ObjIntConsumer<? super String> action);
+    }
+
+    private static final class Leaf extends Node {
+        private final String[] keys;
+        private final int[] values;
+
+        private Leaf(String[] keys, int[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        int computeEstimate() { // Two arrays holding a reference and a primitive per permission
+            int size = 3 * SizeEstimates.OBJECT;
+            for (String key : this.keys) {
+                size += SizeEstimates.REFERENCE + SizeEstimates.of(key) + 4;
+            }
+            return size;
+        }
+
+        @Override
+        String firstKey() {
+            return this.keys[0];
+        }
+
+        @Override
+        boolean contains(String key) {
+            return Arrays.binarySearch(this.keys, key) >= 0;
+        }
+
+        @Override
+        int get(String key, int defaultValue) {
+            final int index = Arrays.binarySearch(this.keys, key);
+            return index < 0 ? defaultValue : this.values[index];
+        }
+
+        @Override
+        Node[] with(String key, int value) {
+            final int index = Arrays.binarySearch(this.keys, key);
+            if (index >= 0) {
+                final int[] newValues = this.values.clone();
+                newValues[index] = value;
+                return new Node[] {new Leaf(this.keys, newValues)};
+            }
+
+            final int insert = -(index + 1);
+            final String[] newKeys = new String[this.keys.length + 1];
+            final int[] newValues = new int[this.values.length + 1];
+            System.arraycopy(this.keys, 0, newKeys, 0, insert);
+            System.arraycopy(this.values, 0, newValues, 0, insert);
+            newKeys[insert] = key;
+            newValues[insert] = value;
+            System.arraycopy(this.keys, insert, newKeys, insert + 1, this.keys.length - insert);
+            System.arraycopy(this.values, insert, newValues, insert + 1, this.values.length - insert);
+            if (newKeys.length <= NODE_SIZE) {
+                return new Node[] {new Leaf(newKeys, newValues)};
+            }
+            final int mid = newKeys.length / 2;
+            return new Node[] {
+                    new Leaf(Arrays.copyOfRange(newKeys, 0, mid), Arrays.copyOfRange(newValues, 0, mid)),
+                    new Leaf(Arrays.copyOfRange(newKeys, mid, newKeys.length), Arrays.copyOfRange(newValues, mid, newValues.length))
+            };
+        }
+
+        @Override
+        Node without(String key) {
+            if (this.keys.length == 1) {
+                return null;
+            }
+            final int index = Arrays.binarySearch(this.keys, key);
+            final String[] newKeys = new String[this.keys.length - 1];
+            final int[] newValues = new int[this.values.length - 1];
+            System.arraycopy(this.keys, 0, newKeys, 0, index);
+            System.arraycopy(this.values, 0, newValues, 0, index);
+            System.arraycopy(this.keys, index + 1, newKeys, index, this.keys.length - index - 1);
+            System.arraycopy(this.values, index + 1, newValues, index, this.values.length - index - 1);
+            return new Leaf(newKeys, newValues);
+        }
+
+        @Override
+        void forEach(ObjIntConsumer<? super String> action) {
+            for (int i = 0; i < this.keys.length; ++i) {
+                action.accept(this.keys[i], this.values[i]);
+            }
+        }
+    }
+
+    private static final class Branch extends Node {
+        private final String[] separators; // separators[i] is at most the first key below children[i + 1]
+        private final Node[] children;
+
+        private Branch(String[] separators, Node[] children) {
+            this.separators = separators;
+            this.children = children;
+        }
+
+        private static Branch of(Node[] children) {
+            final String[] separators = new String[children.length - 1];
+            for (int i = 1; i < children.length; ++i) {
+                separators[i - 1] = children[i].firstKey();
+            }
+            return new Branch(separators, children);
+        }
+
+        private int childIndex(String key) {
+            final int index = Arrays.binarySearch(this.separators, key);
+            return index >= 0 ? index + 1 : -(index + 1);
+        }
+
+        @Override
+        int computeEstimate() {
+            int size = 3 * SizeEstimates.OBJECT + 2 * SizeEstimates.REFERENCE * this.children.length;
+            for (Node child : this.children) {
+                size += child.estimateSize();
+            }
+            return size;
+        }
+
+        @Override
+        String firstKey() {
+            return this.children[0].firstKey();
+        }
+
+        @Override
+        boolean contains(String key) {
+            return this.children[childIndex(key)].contains(key);
+        }
+
+        @Override
+        int get(String key, int defaultValue) {
+            return this.children[childIndex(key)].get(key, defaultValue);
+        }
+
+        @Override
+        Node[] with(String key, int value) {
+            final int index = childIndex(key);
+            final Node[] replacement = this.children[index].with(key, value);
+            if (replacement.length == 1) {
+                final Node[] newChildren = this.children.clone();
+                newChildren[index] = replacement[0];
+                return new Node[] {new Branch(this.separators, newChildren)};
+            }
+
+            final Node[] newChildren = new Node[this.children.length + 1];
+            System.arraycopy(this.children, 0, newChildren, 0, index);
+            newChildren[index] = replacement[0];
+            newChildren[index + 1] = replacement[1];
+            System.arraycopy(this.children, index + 1, newChildren, index + 2, this.children.length - index - 1);
+            if (newChildren.length <= NODE_SIZE) {
+                final String[] newSeparators = new String[this.separators.length + 1];
+                System.arraycopy(this.separators, 0, newSeparators, 0, index);
+                newSeparators[index] = replacement[1].firstKey();
+                System.arraycopy(this.separators, index, newSeparators, index + 1, this.separators.length - index);
+                return new Node[] {new Branch(newSeparators, newChildren)};
+            }
+            final int mid = newChildren.length / 2;
+            return new Node[] {Branch.of(Arrays.copyOfRange(newChildren, 0, mid)), Branch.of(Arrays.copyOfRange(newChildren, mid, newChildren.length))};
+        }
+
+        @Override
+        Node without(String key) {
+            final int index = childIndex(key);
+            final Node replacement = this.children[index].without(key);
+            if (replacement != null) {
+                final Node[] newChildren = this.children.clone();
+                newChildren[index] = replacement;
+                return new Branch(this.separators, newChildren);
+            } else if (this.children.length == 1) {
+                return null;
+            }
+
+            final Node[] newChildren = new Node[this.children.length - 1];
+            System.arraycopy(this.children, 0, newChildren, 0, index);
+            System.arraycopy(this.children, index + 1, newChildren, index, this.children.length - index - 1);
+            final int removedSeparator = index == 0 ? 0 : index - 1;
+            final String[] newSeparators = new String[this.separators.length - 1];
+            System.arraycopy(this.separators, 0, newSeparators, 0, removedSeparator);
+            System.arraycopy(this.separators, removedSeparator + 1, newSeparators, removedSeparator, this.separators.length - removedSeparator - 1);
+            return new Branch(newSeparators, newChildren);
+        }
+
+        @Override
+        void forEach(ObjIntConsumer<? super String> action) {
+            for (Node child : this.children) {
+                child.forEach(action);
+            }
+        }
+    }
+
+    /**
+     * Iterates over the entries of a tree in order, keeping the path to the current leaf on a stack.
+     */
+    private static final class EntryIterator implements Iterator<Entry<String, Integer>> {
+        private final Deque<Branch> branches = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Leaf leaf;
+        private int index = -1;
+
+        private EntryIterator(Node root) {
+            descend(root);
+        }
+
+        private void descend(Node node) {
+            while (node instanceof Branch) {
+                this.branches.push((Branch) node);
+                this.positions.push(0);
+                node = ((Branch) node).children[0];
+            }
+            this.leaf = (Leaf) node;
+            this.index = -1;
+        }
+
+        /**
+         * Move to the next entry.
+         *
+         * @return Whether there was another entry
+         */
+        private boolean advance() {
+            if (this.index + 1 < this.leaf.keys.length) {
+                ++this.index;
+                return true;
+            }
+            while (!this.branches.isEmpty()) {
+                final Branch branch = this.branches.peek();
+                final int position = this.positions.pop() + 1;
+                if (position < branch.children.length) {
+                    this.positions.push(position);
+                    descend(branch.children[position]);
+                    if (this.leaf.keys.length > 0) {
+                        this.index = 0;
+                        return true;
+                    }
+                } else {
+                    this.branches.pop();
+                }
+            }
+            return false;
+        }
+
+        private String key() {
+            return this.leaf.keys[this.index];
+        }
+
+        private int value() {
+            return this.leaf.values[this.index];
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.index + 1 < this.leaf.keys.length) {
+                return true;
+            }
+            // Every node below a branch holds at least one entry, so any branch with children left means there is another entry
+            final Iterator<Integer> position = this.positions.iterator();
+            for (Branch branch : this.branches) {
+                if (position.next() + 1 < branch.children.length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<String, Integer> next() {
+            if (!advance()) {
+                throw new NoSuchElementException();
+            }
+            return new SimpleImmutableEntry<>(key(), value());
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package ninja.leaping.permissionsex.data;
 
 import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.util.Object2IntMap;
 
 import java.util.List;
 import java.util.Map;
@@ -39,6 +40,17 @@ public interface ImmutableSubjectData {
 
     Map<String, Integer> getPermissions(Set<Map.Entry<String, String>> contexts);
 
+    /**
+     * Get the permissions set in the given contexts as primitive values. Implementations should override this
+     * to return their permissions without copying them.
+     *
+     * @param contexts The contexts to get permissions for
+     * @return The permissions set in these contexts
+     */
+    default Object2IntMap<String> getPermissionValues(Set<Map.Entry<String, String>> contexts) {
+        return ImmutablePermissionMap.copyOf(getPermissions(contexts));
+    }
+
     ImmutableSubjectData setPermission(Set<Map.Entry<String, String>> contexts, String permission, int value);
 
     ImmutableSubjectData setPermissions(Set<Map.Entry<String, String>> contexts, Map<String, Integer> values);
@@ -72,4 +84,15 @@ public interface ImmutableSubjectData {
     Iterable<Set<Map.Entry<String, String>>> getActiveContexts();
 
     Map<Set<Map.Entry<String, String>>, Integer> getAllDefaultValues();
+
+    /**
+     * Get a rough estimate of the heap usage of this data, in bytes, for weighing cache entries.
+     * Implementations that share structure between versions should override this to reuse estimates of the shared parts.
+     *
+     * @return The estimated size
+     * @see SizeEstimates
+     */
+    default int estimateSize() {
+        return SizeEstimates.ofContents(this);
+    }
 }
@@ -20,9 +20,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import ninja.leaping.permissionsex.backend.DataStore;
 import ninja.leaping.permissionsex.rank.RankLadder;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -30,19 +32,22 @@ import java.util.concurrent.ExecutionException;
 
 public class RankLadderCache {
     private final DataStore dataStore;
+    private final CacheBudget budget;
     private final LoadingCache<String, RankLadder> cache;
     private final Map<String, Caching<RankLadder>> cacheHolders = new ConcurrentHashMap<>();
     private final CacheListenerHolder<String, RankLadder> listeners;
+    private volatile Map<String, RankLadder> replacedLadders; // Ladders listeners last saw, held until changes have been published
 
-    public RankLadderCache(final DataStore dataStore) {
-        this(null, dataStore);
+    public RankLadderCache(final DataStore dataStore, final CacheBudget budget) {
+        this(null, dataStore, budget);
     }
 
-    public RankLadderCache(final RankLadderCache existing, final DataStore dataStore) {
+    public RankLadderCache(final RankLadderCache existing, final DataStore dataStore, final CacheBudget budget) {
         this.dataStore = dataStore;
-        cache = CacheBuilder.newBuilder()
-                .maximumSize(512)
-                .build(new CacheLoader<String, RankLadder>() {
+        this.budget = Preconditions.checkNotNull(budget, "budget");
+        cache = budget.build(CacheBuilder.newBuilder(),
+                (String identifier, RankLadder ladder) -> SizeEstimates.of(identifier) + SizeEstimates.of(ladder),
+                new CacheLoader<String, RankLadder>() {
                     @Override
                     public RankLadder load(String identifier) throws Exception {
                         return dataStore.getRankLadder(identifier, clearListener(identifier));
@@ -50,7 +55,21 @@ public class RankLadderCache {
                 });
         if (existing != null) {
             listeners = existing.listeners;
-            existing.cache.asMap().forEach((k, old) -> listeners.call(k, get(k, null)));
+            final Map<String, RankLadder> previous = new HashMap<>();
+            for (String identifier : existing.listeners.getAllKeys()) {
+                RankLadder ladder = existing.cache.getIfPresent(identifier);
+                if (ladder == null) { // Evicted while still depended on
+                    try {
+                        ladder = existing.dataStore.getRankLadder(identifier, null);
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                }
+                previous.put(identifier, ladder);
+            }
+            replacedLadders = previous;
+            existing.cache.asMap().keySet().forEach(this::load); // Listeners are notified by publishChanges()
+            previous.keySet().forEach(this::load);
         } else {
             listeners = new CacheListenerHolder<>();
         }
@@ -66,6 +85,7 @@ public class RankLadderCache {
         } catch (ExecutionException e) {
             throw new RuntimeException(e); // This shouldn't happen? -- we throw now checked exceptions
         }
+        budget.checkUsage();
         if (listener != null) {
             listeners.addListener(identifier, listener);
         }
@@ -81,6 +101,29 @@ public class RankLadderCache {
         }
     }
 
+    /**
+     * Once this cache has replaced another one, notify listeners of every ladder that differs from the ladder
+     * the replaced cache had. Every ladder with listeners is compared, whether or not it is still cached.
+     */
+    public void publishChanges() {
+        final Map<String, RankLadder> replaced = this.replacedLadders;
+        if (replaced == null) {
+            return;
+        }
+        this.replacedLadders = null;
+        for (String identifier : ImmutableList.copyOf(listeners.getAllKeys())) {
+            final RankLadder ladder;
+            try {
+                ladder = cache.get(identifier);
+            } catch (ExecutionException | RuntimeException e) {
+                continue;
+            }
+            if (!ladder.equals(replaced.get(identifier))) {
+                listeners.call(identifier, ladder);
+            }
+        }
+    }
+
     public void invalidate(String identifier) {
         Preconditions.checkNotNull(identifier, "identifier");
 
@@ -105,6 +148,7 @@ public class RankLadderCache {
     private Caching<RankLadder> clearListener(final String name) {
         Caching<RankLadder> ret = newData -> {
             cache.put(name, newData);
+            budget.checkUsage();
             listeners.call(name, newData);
         };
         cacheHolders.put(name, ret);
@@ -0,0 +1,113 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import ninja.leaping.permissionsex.rank.RankLadder;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rough estimates of the heap usage of data held in caches, used as weights for a {@link CacheBudget}.
+ * These are not exact, but scale with the amount of data stored so that large subjects weigh more than small ones.
+ */
+public final class SizeEstimates {
+    public static final int OBJECT = 16;
+    public static final int REFERENCE = 8;
+    public static final int MAP_ENTRY = 32;
+    private static final int STRING = 40;
+
+    private SizeEstimates() {
+    }
+
+    public static int of(String str) {
+        return str == null ? 0 : STRING + 2 * str.length();
+    }
+
+    public static int of(Map.Entry<String, String> entry) {
+        return MAP_ENTRY + of(entry.getKey()) + of(entry.getValue());
+    }
+
+    public static int ofContexts(Set<Map.Entry<String, String>> contexts) {
+        int size = OBJECT;
+        for (Map.Entry<String, String> context : contexts) {
+            size += of(context);
+        }
+        return size;
+    }
+
+    public static int ofEntries(Collection<? extends Map.Entry<String, String>> entries) {
+        int size = OBJECT;
+        for (Map.Entry<String, String> entry : entries) {
+            size += REFERENCE + of(entry);
+        }
+        return size;
+    }
+
+    public static int ofOptions(Map<String, String> options) {
+        int size = OBJECT;
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            size += of(option);
+        }
+        return size;
+    }
+
+    public static int ofPermissions(Map<String, Integer> permissions) {
+        if (permissions instanceof ImmutablePermissionMap) {
+            return ((ImmutablePermissionMap) permissions).estimateSize();
+        }
+        int size = OBJECT;
+        for (String permission : permissions.keySet()) {
+            size += MAP_ENTRY + of(permission) + OBJECT;
+        }
+        return size;
+    }
+
+    public static int of(ImmutableSubjectData data) {
+        return data.estimateSize();
+    }
+
+    /**
+     * Estimate the size of subject data by reading all of its contents.
+     * This is the default for {@link ImmutableSubjectData#estimateSize()}.
+     *
+     * @param data The data to estimate
+     * @return The estimated size
+     */
+    public static int ofContents(ImmutableSubjectData data) {
+        int size = OBJECT;
+        for (Map.Entry<Set<Map.Entry<String, String>>, Map<String, Integer>> ent : data.getAllPermissions().entrySet()) {
+            size += MAP_ENTRY + ofContexts(ent.getKey()) + ofPermissions(ent.getValue());
+        }
+        for (Map.Entry<Set<Map.Entry<String, String>>, Map<String, String>> ent : data.getAllOptions().entrySet()) {
+            size += MAP_ENTRY + ofContexts(ent.getKey()) + ofOptions(ent.getValue());
+        }
+        for (Map.Entry<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> ent : data.getAllParents().entrySet()) {
+            size += MAP_ENTRY + ofContexts(ent.getKey()) + ofEntries(ent.getValue());
+        }
+        for (Set<Map.Entry<String, String>> contexts : data.getAllDefaultValues().keySet()) {
+            size += MAP_ENTRY + ofContexts(contexts) + OBJECT;
+        }
+        return size;
+    }
+
+    public static int of(RankLadder ladder) {
+        return OBJECT + of(ladder.getName()) + ofEntries(ladder.getRanks());
+    }
+}
@@ -16,88 +16,469 @@
  */
 package ninja.leaping.permissionsex.data;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.backend.DataStore;
 import ninja.leaping.permissionsex.util.Util;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class SubjectCache {
     private final String type;
     private final DataStore dataStore;
+    private final CacheBudget budget;
+    private final Executor asyncExecutor;
+    private final int refreshInterval;
+    private final Cache<ImmutableSubjectData, Long> versions = CacheBuilder.newBuilder().weakKeys().build(); // Version stamps of loaded data
+    private final Map<String, CompletableFuture<ImmutableSubjectData>> pendingLoads = new ConcurrentHashMap<>();
+    private final Map<String, UpdateQueue> pendingUpdates = new ConcurrentHashMap<>();
     private final LoadingCache<String, ImmutableSubjectData> cache;
     private final Map<String, Caching<ImmutableSubjectData>> cacheHolders = new ConcurrentHashMap<>();
     private final CacheListenerHolder<String, ImmutableSubjectData> listeners;
+    private final Set<String> pinned;
+    private final CacheAdmission<String> admission;
     private final Map.Entry<String, String> defaultIdentifier;
+    private volatile Map<String, ImmutableSubjectData> replacedData; // Data listeners last saw, held until changes have been published
 
-    public SubjectCache(final String type, final DataStore dataStore) {
-        this(type, null, dataStore);
+    public SubjectCache(final String type, final DataStore dataStore, final CacheBudget budget, final Executor asyncExecutor) {
+        this(type, dataStore, budget, asyncExecutor, 0);
     }
 
-    public SubjectCache(final SubjectCache existing, final DataStore dataStore) {
-        this(existing.getType(), existing, dataStore);
+    /**
+     * Create a new cache whose entries are checked for changes made outside of this cache once they are older than the refresh interval.
+     * Only entries that are still being requested are checked, and only when the data store provides
+     * {@link DataStore#getVersionStamps(String, Collection) version stamps}.
+     * Checks happen on the async executor, while requests keep being answered with the cached data.
+     *
+     * @param type The type of subjects in this cache
+     * @param dataStore The data store to load data from
+     * @param budget The memory budget for this cache
+     * @param asyncExecutor The executor for asynchronous loads and checks
+     * @param refreshInterval The number of seconds after which entries are checked, or 0 to never check
+     */
+    public SubjectCache(final String type, final DataStore dataStore, final CacheBudget budget, final Executor asyncExecutor, final int refreshInterval) {
+        this(type, null, dataStore, budget, asyncExecutor, refreshInterval);
+    }
+
+    /**
+     * Create a cache replacing an existing cache, for example after a reload. The new cache is loaded with data for every subject
+     * cached by the existing one or listened to, and shares its listeners. Listeners are not notified of the new data
+     * until {@link #publishChanges()} is called.
+     *
+     * @param existing The cache being replaced
+     * @param dataStore The data store for the new cache
+     * @param refreshInterval The number of seconds after which entries are checked for outside changes, or 0 to never check
+     */
+    public SubjectCache(final SubjectCache existing, final DataStore dataStore, final int refreshInterval) {
+        this(existing.getType(), existing, dataStore, existing.budget, existing.asyncExecutor, refreshInterval);
     }
 
-    private SubjectCache(final String type, final SubjectCache existing, final DataStore dataStore) {
+    private SubjectCache(final String type, final SubjectCache existing, final DataStore dataStore, final CacheBudget budget, final Executor asyncExecutor, final int refreshInterval) {
         this.type = type;
         this.dataStore = dataStore;
+        this.budget = Objects.requireNonNull(budget, "budget");
+        this.asyncExecutor = Objects.requireNonNull(asyncExecutor, "asyncExecutor");
+        this.refreshInterval = refreshInterval;
         this.defaultIdentifier = Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, type);
-        cache = CacheBuilder.newBuilder()
-                .maximumSize(512)
-                .build(CacheLoader.from(identifier -> dataStore.getData(type, identifier, clearListener(identifier))));
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (refreshInterval > 0) {
+            builder.refreshAfterWrite(refreshInterval, TimeUnit.SECONDS);
+        }
+        if (existing != null) {
+            this.pinned = existing.pinned;
+            this.admission = existing.admission;
+        } else {
+            this.pinned = ConcurrentHashMap.newKeySet();
+            this.admission = new CacheAdmission<>(budget, this.pinned::contains);
+        }
+        cache = budget.build(builder,
+                (String identifier, ImmutableSubjectData data) -> SizeEstimates.of(identifier) + SizeEstimates.of(data),
+                new CacheLoader<String, ImmutableSubjectData>() {
+                    @Override
+                    public ImmutableSubjectData load(String identifier) throws Exception {
+                        return loadVersioned(identifier);
+                    }
+
+                    @Override
+                    public ListenableFuture<ImmutableSubjectData> reload(String identifier, ImmutableSubjectData oldValue) throws Exception {
+                        final ListenableFutureTask<ImmutableSubjectData> task = ListenableFutureTask.create(() -> revalidate(identifier, oldValue));
+                        SubjectCache.this.asyncExecutor.execute(task);
+                        return task;
+                    }
+                }, this.pinned::contains);
         if (existing != null) {
             this.listeners = existing.listeners;
-            existing.cache.asMap().forEach((k, v) -> {
-                try {
-                    listeners.call(k, getData(k, null));
-                } catch (ExecutionException e) {
-                    // TODO: Not ignore this somehow? Add a listener in to the backend?
+            final Map<String, ImmutableSubjectData> previous = new HashMap<>();
+            for (String identifier : existing.listeners.getAllKeys()) {
+                ImmutableSubjectData data = existing.cache.getIfPresent(identifier);
+                if (data == null) { // Evicted while still depended on, so its old data has to be loaded to tell whether it changed
+                    try {
+                        data = existing.dataStore.getData(type, identifier, null);
+                    } catch (RuntimeException e) {
+                        continue; // Treated as changed
+                    }
                 }
-            });
+                previous.put(identifier, data);
+            }
+            this.replacedData = previous;
+            try {
+                final Set<String> warm = new HashSet<>(existing.cache.asMap().keySet()); // Warm up with what the existing cache held
+                warm.addAll(previous.keySet());
+                loadAll(warm, true);
+            } catch (RuntimeException e) {
+                // TODO: Not ignore this somehow? Add a listener in to the backend?
+            }
         } else {
             this.listeners = new CacheListenerHolder<>();
         }
     }
 
+    /**
+     * Get data for a subject. Data requested with a listener is always cached, so the listener is notified of changes.
+     * Otherwise, data that is not cached is only added to the cache if the subject is pinned, if the cache has room,
+     * or if the subject has been requested recently, so looking at many subjects once does not push out the data that is actually in use.
+     *
+     * @param identifier The identifier of the subject to get data for
+     * @param listener A listener to be notified when the subject's data changes, or null
+     * @return The subject's data
+     * @throws ExecutionException if the data could not be loaded
+     */
     public ImmutableSubjectData getData(String identifier, Caching<ImmutableSubjectData> listener) throws ExecutionException {
         Objects.requireNonNull(identifier, "identifier");
 
-        ImmutableSubjectData ret = cache.get(identifier);
-        if (listener != null) {
+        if (listener != null) { // Registered first, so a change is either in the data returned or delivered to the listener
             listeners.addListener(identifier, listener);
         }
+        ImmutableSubjectData ret = cache.getIfPresent(identifier);
+        if (ret == null || refreshInterval > 0) { // get() is needed for refreshes to be triggered
+            if (ret != null || listener != null || admission.admit(identifier)) {
+                ret = cache.get(identifier);
+            } else {
+                ret = dataStore.getData(type, identifier, null); // A one-shot read, passed through without being cached
+            }
+        }
+        budget.checkUsage();
         return ret;
     }
 
+    /**
+     * Get data for a subject without blocking. If the data is not already cached, it is loaded on the async executor,
+     * and concurrent requests for the same subject share a single load.
+     *
+     * @param identifier The identifier of the subject to get data for
+     * @param listener A listener to be notified when the subject's data changes, or null
+     * @return A future completing with the subject's data
+     */
+    public CompletableFuture<ImmutableSubjectData> getDataAsync(String identifier, Caching<ImmutableSubjectData> listener) {
+        Objects.requireNonNull(identifier, "identifier");
+
+        if (listener != null) {
+            listeners.addListener(identifier, listener);
+        }
+        final ImmutableSubjectData present = cache.getIfPresent(identifier);
+        if (present != null) {
+            return CompletableFuture.completedFuture(present);
+        }
+
+        final CompletableFuture<ImmutableSubjectData> load = new CompletableFuture<>();
+        final CompletableFuture<ImmutableSubjectData> existing = pendingLoads.putIfAbsent(identifier, load);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    final ImmutableSubjectData data = getData(identifier, null);
+                    pendingLoads.remove(identifier, load);
+                    load.complete(data);
+                } catch (Throwable t) {
+                    pendingLoads.remove(identifier, load);
+                    load.completeExceptionally(t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t);
+                }
+            });
+        } catch (RuntimeException e) {
+            pendingLoads.remove(identifier, load);
+            load.completeExceptionally(e);
+        }
+        return load;
+    }
+
+    /**
+     * Get data for a subject only if it is already cached. This never blocks, so it can be used by callers that can not wait
+     * for data to be loaded. {@link #loadAsync(String)} can be used to make the data available for later calls.
+     *
+     * @param identifier The identifier of the subject to get data for
+     * @return The subject's cached data, or empty if it is not currently cached
+     */
+    public Optional<ImmutableSubjectData> getIfPresent(String identifier) {
+        Objects.requireNonNull(identifier, "identifier");
+
+        return Optional.ofNullable(cache.getIfPresent(identifier));
+    }
+
+    /**
+     * Atomically update the data for a subject. Updates to the same subject are applied strictly in the order they are submitted,
+     * each one seeing the data produced by the one before it, so concurrent updates are never lost.
+     * Updates to different subjects do not wait for each other.
+     *
+     * While a write for a subject is in progress, further updates to it are queued and then written together,
+     * so a burst of updates results in one write and one round of change notifications rather than one per update.
+     * An update submitted while no write is in progress is written immediately.
+     *
+     * @param identifier The identifier of the subject to update
+     * @param action The function applied to the subject's current data to produce its new data
+     * @return A future completing with the subject's data once the write containing this update has completed
+     */
     public CompletableFuture<ImmutableSubjectData> update(String identifier, Function<ImmutableSubjectData, ImmutableSubjectData> action) {
-        ImmutableSubjectData data;
+        Objects.requireNonNull(identifier, "identifier");
+        Objects.requireNonNull(action, "action");
+
+        return enqueue(identifier, new PendingUpdate(action));
+    }
+
+    private CompletableFuture<ImmutableSubjectData> enqueue(String identifier, PendingUpdate update) {
+        while (true) {
+            final UpdateQueue queue = pendingUpdates.computeIfAbsent(identifier, UpdateQueue::new);
+            synchronized (queue) {
+                if (queue.retired) {
+                    continue;
+                }
+                queue.pending.add(update);
+                if (queue.writing) {
+                    return update.result;
+                }
+                queue.writing = true;
+            }
+            drain(queue);
+            return update.result;
+        }
+    }
+
+    /**
+     * Write queued updates until the queue is empty, or until a write does not complete immediately.
+     * In the latter case draining continues on the async executor once the write completes.
+     *
+     * @param queue The queue to drain
+     */
+    private void drain(UpdateQueue queue) {
+        while (true) {
+            final List<PendingUpdate> batch;
+            synchronized (queue) {
+                if (queue.pending.isEmpty()) {
+                    queue.writing = false;
+                    queue.retired = true;
+                    pendingUpdates.remove(queue.identifier, queue);
+                    return;
+                }
+                int end = queue.pending.size();
+                for (int i = 0; i < end; ++i) {
+                    if (queue.pending.get(i).isRemoval()) {
+                        end = i + 1;
+                        break;
+                    }
+                }
+                if (end == queue.pending.size()) {
+                    batch = queue.pending;
+                    queue.pending = new ArrayList<>();
+                } else { // Updates after a removal apply to the empty data left by it, so they go in the next batch
+                    batch = new ArrayList<>(queue.pending.subList(0, end));
+                    queue.pending = new ArrayList<>(queue.pending.subList(end, queue.pending.size()));
+                }
+            }
+
+            final CompletableFuture<?> write = applyBatch(queue.identifier, batch);
+            if (!write.isDone()) {
+                write.whenCompleteAsync((result, err) -> drain(queue), asyncExecutor);
+                return;
+            }
+        }
+    }
+
+    private CompletableFuture<?> applyBatch(String identifier, List<PendingUpdate> batch) {
+        if (batch.get(batch.size() - 1).isRemoval()) { // Earlier updates in the batch are superseded by the removal
+            return dataStore.setData(type, identifier, null).thenApply(none -> {
+                final ImmutableSubjectData empty = dataStore.getData(type, identifier, null);
+                if (cache.asMap().replace(identifier, empty) != null) {
+                    budget.checkUsage();
+                    listeners.call(identifier, empty);
+                }
+                recordVersion(identifier, empty);
+                return empty;
+            }).whenComplete((empty, err) -> {
+                for (PendingUpdate update : batch) {
+                    if (err != null) {
+                        update.result.completeExceptionally(err);
+                    } else {
+                        update.result.complete(empty);
+                    }
+                }
+            });
+        }
+
+        final ImmutableSubjectData original;
         try {
-            data = getData(identifier, null);
-        } catch (ExecutionException e) {
-            return Util.failedFuture(e);
+            original = getData(identifier, null);
+        } catch (Throwable t) {
+            final Throwable cause = t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t;
+            batch.forEach(update -> update.result.completeExceptionally(cause));
+            return CompletableFuture.completedFuture(null);
         }
 
-        ImmutableSubjectData newData = action.apply(data);
-        if (newData != data) {
-            return set(identifier, newData);
-        } else {
-            return CompletableFuture.completedFuture(data);
+        ImmutableSubjectData data = original;
+        final List<PendingUpdate> applied = new ArrayList<>(batch.size());
+        for (PendingUpdate update : batch) {
+            try {
+                data = update.action.apply(data);
+                applied.add(update);
+            } catch (Throwable t) { // A failing update is skipped without affecting the rest of the batch
+                update.result.completeExceptionally(t);
+            }
+        }
+
+        if (data == original) {
+            for (PendingUpdate update : applied) {
+                update.result.complete(original);
+            }
+            return CompletableFuture.completedFuture(original);
+        }
+        return dataStore.setData(type, identifier, data).whenComplete((written, err) -> {
+            if (written != null) {
+                recordVersion(identifier, written);
+            }
+            for (PendingUpdate update : applied) {
+                if (err != null) {
+                    update.result.completeExceptionally(err);
+                } else {
+                    update.result.complete(written);
+                }
+            }
+        });
+    }
+
+    /**
+     * Record the version stamp of data written through this cache, so it is not mistaken for outdated data when next checked.
+     * The stamp is taken after the write, so a change made by something else in the meantime is only noticed once the subject changes again.
+     *
+     * @param identifier The identifier of the subject that was written
+     * @param written The data that was written
+     */
+    private void recordVersion(String identifier, ImmutableSubjectData written) {
+        if (refreshInterval <= 0) {
+            return;
+        }
+        final Long stamp = dataStore.getVersionStamps(type, ImmutableList.of(identifier)).get(identifier);
+        if (stamp != null) {
+            versions.put(written, stamp);
+        }
+    }
+
+    private ImmutableSubjectData loadVersioned(String identifier) {
+        if (refreshInterval <= 0) {
+            return dataStore.getData(type, identifier, clearListener(identifier));
+        }
+        // The stamp is taken first, so a change made while loading at worst causes an unnecessary check later
+        final Long stamp = dataStore.getVersionStamps(type, ImmutableList.of(identifier)).get(identifier);
+        final ImmutableSubjectData ret = dataStore.getData(type, identifier, clearListener(identifier));
+        if (stamp != null) {
+            versions.put(ret, stamp);
+        }
+        return ret;
+    }
+
+    /**
+     * Check whether cached data for a subject is still current, and load it again if it has been changed outside of this cache.
+     * Listeners are only notified if the newly loaded data differs from the cached data.
+     *
+     * @param identifier The identifier of the subject to check
+     * @param cached The currently cached data
+     * @return The current data
+     */
+    private ImmutableSubjectData revalidate(String identifier, ImmutableSubjectData cached) {
+        if (pendingUpdates.containsKey(identifier)) {
+            return cached; // Our own write will replace the data anyway
+        }
+        final Long stamp = dataStore.getVersionStamps(type, ImmutableList.of(identifier)).get(identifier);
+        if (stamp == null) {
+            return cached;
+        }
+        final Long known = versions.getIfPresent(cached);
+        if (stamp.equals(known)) {
+            return cached;
+        }
+
+        final ImmutableSubjectData fresh = dataStore.getData(type, identifier, clearListener(identifier));
+        if (fresh.equals(cached)) {
+            versions.put(cached, stamp);
+            return cached;
+        }
+        versions.put(fresh, stamp);
+        if (cache.asMap().replace(identifier, cached, fresh)) {
+            budget.checkUsage();
+            listeners.call(identifier, fresh);
         }
+        return fresh;
     }
 
     public void load(String identifier) throws ExecutionException {
         Objects.requireNonNull(identifier, "identifier");
 
         cache.get(identifier);
+        budget.checkUsage();
+    }
+
+    /**
+     * Load data for a subject into this cache without blocking. The data is cached regardless of the admission policy.
+     *
+     * @param identifier The identifier of the subject to load
+     * @return A future completing once the subject's data is cached
+     */
+    public CompletableFuture<Void> loadAsync(String identifier) {
+        Objects.requireNonNull(identifier, "identifier");
+
+        return Util.asyncFailableFuture(() -> {
+            load(identifier);
+            return null;
+        }, asyncExecutor);
+    }
+
+    /**
+     * Pin a subject's data in this cache, such as while a player is online. Data for pinned subjects is always cached
+     * when requested, and is not removed to bring cache usage back within the memory budget.
+     *
+     * @param identifier The identifier of the subject
+     * @param pinned Whether the subject should be pinned
+     */
+    public void setPinned(String identifier, boolean pinned) {
+        Objects.requireNonNull(identifier, "identifier");
+
+        if (pinned) {
+            this.pinned.add(identifier);
+        } else {
+            this.pinned.remove(identifier);
+        }
     }
 
     public void invalidate(String identifier) {
@@ -108,12 +489,111 @@ public class SubjectCache {
         listeners.removeAll(identifier);
     }
 
+    /**
+     * Load data for many subjects into this cache at once. Subjects that are not already cached are fetched from the data store
+     * in a single bulk operation. Once the cache is full, subjects that are neither pinned nor requested recently are skipped,
+     * so loading a large number of subjects does not push out the data that is actually in use.
+     *
+     * @param identifiers The identifiers of the subjects to load
+     */
+    public void loadAll(Collection<String> identifiers) {
+        loadAll(identifiers, false);
+    }
+
+    private void loadAll(Collection<String> identifiers, boolean force) {
+        Objects.requireNonNull(identifiers, "identifiers");
+
+        final ImmutableList.Builder<String> missing = ImmutableList.builder();
+        for (String identifier : identifiers) {
+            if (cache.getIfPresent(identifier) == null && (force || admission.isAdmissible(identifier))) {
+                missing.add(identifier);
+            }
+        }
+        final ImmutableList<String> toLoad = missing.build();
+        if (!toLoad.isEmpty()) {
+            final Map<String, Long> stamps = refreshInterval > 0 ? dataStore.getVersionStamps(type, toLoad) : ImmutableMap.of();
+            final Map<String, ImmutableSubjectData> loaded = dataStore.getDataBulk(type, toLoad, this::clearListener);
+            loaded.forEach((identifier, data) -> {
+                final Long stamp = stamps.get(identifier);
+                if (stamp != null) {
+                    versions.put(data, stamp);
+                }
+            });
+            cache.putAll(loaded);
+            budget.checkUsage();
+        }
+    }
+
+    /**
+     * Delete a subject's data from the data store. Listeners for the subject are kept,
+     * and if the subject is cached they are notified that its data is now empty.
+     *
+     * The removal is ordered with {@link #update(String, Function) updates} to the subject: updates submitted before it
+     * are discarded, and updates submitted after it apply to the empty data.
+     *
+     * @param identifier The identifier of the subject to remove
+     * @return A future completing once the subject's data has been removed
+     */
+    public CompletableFuture<Void> remove(String identifier) {
+        Objects.requireNonNull(identifier, "identifier");
+
+        return enqueue(identifier, new PendingUpdate(null)).thenApply(empty -> null);
+    }
+
+    /**
+     * Load every subject of this type known to the data store into this cache, as far as the admission policy allows.
+     * If the bulk load fails, subjects are loaded one at a time, so that a subject that can not be loaded does not keep
+     * the others out of the cache.
+     *
+     * @throws RuntimeException if any subject could not be loaded, with the failures for further subjects suppressed
+     */
     public void cacheAll() {
-        for (String ident : dataStore.getAllIdentifiers(type)) {
+        final List<String> identifiers = ImmutableList.copyOf(dataStore.getAllIdentifiers(type));
+        try {
+            loadAll(identifiers);
+        } catch (RuntimeException bulkFailure) {
+            RuntimeException failure = null;
+            for (String identifier : identifiers) {
+                if (cache.getIfPresent(identifier) != null || !admission.isAdmissible(identifier)) {
+                    continue;
+                }
+                try {
+                    load(identifier);
+                } catch (ExecutionException | RuntimeException e) {
+                    final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    if (failure == null) {
+                        failure = new RuntimeException("Unable to load " + type + " " + identifier, cause);
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Once this cache has replaced another one, notify listeners of every subject whose data differs from
+     * the data the replaced cache had for it. Every subject with listeners is compared, whether or not it is still cached.
+     * Subjects whose data did not change are left alone, so they are not rebaked.
+     */
+    public void publishChanges() {
+        final Map<String, ImmutableSubjectData> replaced = this.replacedData;
+        if (replaced == null) {
+            return;
+        }
+        this.replacedData = null;
+        for (String identifier : ImmutableList.copyOf(listeners.getAllKeys())) {
+            final ImmutableSubjectData data;
             try {
-                cache.get(ident);
-            } catch (ExecutionException e) {
-                // oh noes, but we'll still squash it
+                data = cache.get(identifier);
+            } catch (ExecutionException | RuntimeException e) {
+                continue; // Listeners are notified once the data can be loaded again
+            }
+            if (!data.equals(replaced.get(identifier))) {
+                listeners.call(identifier, data);
             }
         }
     }
@@ -124,16 +604,24 @@ public class SubjectCache {
         return dataStore.isRegistered(type, identifier);
     }
 
+    /**
+     * Set the data for a subject. The write is ordered with any pending {@link #update(String, Function) updates} to the same subject.
+     *
+     * @param identifier The identifier of the subject
+     * @param newData The subject's new data
+     * @return A future completing with the subject's data once it has been written
+     */
     public CompletableFuture<ImmutableSubjectData> set(String identifier, ImmutableSubjectData newData) {
         Objects.requireNonNull(identifier, "identifier");
         Objects.requireNonNull(newData, "newData");
 
-        return dataStore.setData(type, identifier, newData);
+        return update(identifier, old -> newData);
     }
 
     private Caching<ImmutableSubjectData> clearListener(final String name) {
         Caching<ImmutableSubjectData> ret = newData -> {
             cache.put(name, newData);
+            budget.checkUsage();
             listeners.call(name, newData);
         };
         cacheHolders.put(name, ret);
@@ -162,4 +650,31 @@ public class SubjectCache {
     public Map.Entry<String, String> getDefaultIdentifier() {
         return defaultIdentifier;
     }
+
+    private static class PendingUpdate {
+        @Nullable private final Function<ImmutableSubjectData, ImmutableSubjectData> action; // null to remove the subject's data
+        private final CompletableFuture<ImmutableSubjectData> result = new CompletableFuture<>();
+
+        private PendingUpdate(@Nullable Function<ImmutableSubjectData, ImmutableSubjectData> action) {
+            this.action = action;
+        }
+
+        private boolean isRemoval() {
+            return this.action == null;
+        }
+    }
+
+    /**
+     * Updates waiting to be written for a single subject. Guarded by its own monitor.
+     */
+    private static class UpdateQueue {
+        private final String identifier;
+        private List<PendingUpdate> pending = new ArrayList<>();
+        private boolean writing;
+        private boolean retired; // Removed from the map of pending updates, so new updates must use a fresh queue
+
+        private UpdateQueue(String identifier) {
+            this.identifier = identifier;
+        }
+    }
 }
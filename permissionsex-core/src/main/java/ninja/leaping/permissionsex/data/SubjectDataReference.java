@@ -34,6 +34,10 @@ public class SubjectDataReference implements Caching<ImmutableSubjectData> {
     private final Set<Consumer<ImmutableSubjectData>> updateListeners;
     private final AtomicReference<ImmutableSubjectData> data = new AtomicReference<>();
     private final boolean strongListeners;
+    /**
+     * The number of changes delivered to this reference, guarded by {@link #data}.
+     */
+    private long deliveredChanges;
 
     public static SubjectDataReference forSubject(String identifier, SubjectCache holder) throws ExecutionException {
         return forSubject(identifier, holder, true);
@@ -70,23 +74,34 @@ public class SubjectDataReference implements Caching<ImmutableSubjectData> {
         return cache.set(this.identifier, newData);
     }
 
+    /**
+     * Update the referenced data. The function is applied to the latest data in the cache, in order with all other updates
+     * to this subject, so concurrent updates are never lost.
+     *
+     * @param modifierFunc The function producing new data from the current data
+     * @return A future completing with the subject's data once the update has been written. The data held by this reference
+     *          only changes once the write has succeeded
+     */
     public CompletableFuture<ImmutableSubjectData> update(Function<ImmutableSubjectData, ImmutableSubjectData> modifierFunc) {
-        ImmutableSubjectData data, newData;
-        do {
-            data = get();
-
-            newData = modifierFunc.apply(data);
-            if (newData == data) {
-                return CompletableFuture.completedFuture(data);
+        final long submitted;
+        synchronized (data) {
+            submitted = this.deliveredChanges;
+        }
+        return cache.update(this.identifier, modifierFunc).thenApply(newData -> {
+            synchronized (data) {
+                if (this.deliveredChanges == submitted) { // Otherwise the delivered changes already include this write, or a later one
+                    this.data.set(newData);
+                }
             }
-        } while (!this.data.compareAndSet(data, newData));
-        return set(newData);
+            return newData;
+        });
     }
 
     @Override
     public void clearCache(ImmutableSubjectData newData) {
         synchronized (data) {
             this.data.set(newData);
+            this.deliveredChanges++;
             this.updateListeners.forEach(cb -> cb.accept(newData));
         }
     }
@@ -0,0 +1,282 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.rank.RankLadder;
+import ninja.leaping.permissionsex.util.Util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A set of changes to subjects, rank ladders and context inheritance that are written to a data store together.
+ *
+ * Changes are only staged until {@link #commit()} is called. They are then applied in the order they were staged within a single
+ * bulk operation, so the backend can write them in one operation (one file save, or one SQL transaction), and listeners are only
+ * notified once every change has been written. All staged changes to one subject are combined into a single write (two if the
+ * subject is deleted and then changed again), which goes through the subject's {@link SubjectCache} so it is ordered with other
+ * updates to that subject.
+ *
+ * If any change fails, no further changes are applied, and every subject, rank ladder and the context inheritance touched by
+ * the transaction is written back with the value it had when the commit began. This restores the data, but it is not isolation:
+ * other writers can see the partially applied changes, listeners are notified of both the changes and their reversal, and writes
+ * made by others to the same data while the commit is in progress are overwritten by the restore.
+ */
+public class Transaction {
+    private static final Object CONTEXT_INHERITANCE = new Object();
+
+    private final DataStore dataStore;
+    private final Function<String, SubjectCache> subjects;
+    private final Map<Object, Change> changes = new LinkedHashMap<>();
+    private boolean committed;
+
+    /**
+     * Create a new transaction.
+     *
+     * @param dataStore The data store to write changes to
+     * @param subjects The caches for each subject type in the data store, which subject changes are written through
+     */
+    public Transaction(DataStore dataStore, Function<String, SubjectCache> subjects) {
+        this.dataStore = Preconditions.checkNotNull(dataStore, "dataStore");
+        this.subjects = Preconditions.checkNotNull(subjects, "subjects");
+    }
+
+    /**
+     * Stage setting the data for a subject.
+     *
+     * @param type The subject's type
+     * @param identifier The subject's identifier
+     * @param data The new data for the subject, or null to delete it
+     * @return this transaction
+     */
+    public Transaction setData(String type, String identifier, ImmutableSubjectData data) {
+        Preconditions.checkNotNull(type, "type");
+        Preconditions.checkNotNull(identifier, "identifier");
+        return stageSubject(type, identifier, data == null ? null : old -> data, data == null);
+    }
+
+    /**
+     * Stage an update to the data for a subject. The function is applied when the transaction is committed,
+     * to the subject's data as changed by any earlier changes in this transaction.
+     *
+     * @param type The subject's type
+     * @param identifier The subject's identifier
+     * @param action The function producing the subject's new data from its current data
+     * @return this transaction
+     */
+    public Transaction update(String type, String identifier, Function<ImmutableSubjectData, ImmutableSubjectData> action) {
+        Preconditions.checkNotNull(type, "type");
+        Preconditions.checkNotNull(identifier, "identifier");
+        Preconditions.checkNotNull(action, "action");
+        return stageSubject(type, identifier, action, false);
+    }
+
+    /**
+     * Stage setting a rank ladder.
+     *
+     * @param identifier The name of the ladder
+     * @param ladder The new ladder, or null to delete it
+     * @return this transaction
+     */
+    public Transaction setRankLadder(String identifier, RankLadder ladder) {
+        Preconditions.checkNotNull(identifier, "identifier");
+        final String key = identifier.toLowerCase();
+        return stage(Maps.immutableEntry(RankLadder.class, key), new Change() {
+            @Override
+            Supplier<CompletableFuture<?>> snapshot(DataStore store) {
+                final RankLadder original = store.hasRankLadder(key) ? store.getRankLadder(key, null) : null;
+                return () -> store.setRankLadder(key, original);
+            }
+
+            @Override
+            CompletableFuture<?> apply(DataStore store) {
+                return store.setRankLadder(identifier, ladder);
+            }
+        });
+    }
+
+    /**
+     * Stage setting the context inheritance.
+     *
+     * @param inheritance The new context inheritance
+     * @return this transaction
+     */
+    public Transaction setContextInheritance(ContextInheritance inheritance) {
+        Preconditions.checkNotNull(inheritance, "inheritance");
+        return stage(CONTEXT_INHERITANCE, new Change() {
+            @Override
+            Supplier<CompletableFuture<?>> snapshot(DataStore store) {
+                final ContextInheritance original = store.getContextInheritance(null);
+                return () -> store.setContextInheritance(original);
+            }
+
+            @Override
+            CompletableFuture<?> apply(DataStore store) {
+                return store.setContextInheritance(inheritance);
+            }
+        });
+    }
+
+    private synchronized Transaction stageSubject(String type, String identifier, Function<ImmutableSubjectData, ImmutableSubjectData> action, boolean remove) {
+        Preconditions.checkState(!this.committed, "This transaction has already been committed");
+        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
+        final Change existing = this.changes.get(key);
+        if (existing instanceof SubjectChange) {
+            ((SubjectChange) existing).add(action, remove);
+        } else {
+            final SubjectChange change = new SubjectChange(type, identifier);
+            change.add(action, remove);
+            this.changes.put(key, change);
+        }
+        return this;
+    }
+
+    private synchronized Transaction stage(Object target, Change change) {
+        Preconditions.checkState(!this.committed, "This transaction has already been committed");
+        this.changes.remove(target); // Only the last value staged for a ladder or the inheritance is written, in its latest position
+        this.changes.put(target, change);
+        return this;
+    }
+
+    /**
+     * Write every staged change to the data store. A transaction can only be committed once.
+     *
+     * @return A future completing once all changes have been written and listeners have been notified of them.
+     *          If any change failed, it completes exceptionally with that failure once the original data has been restored
+     */
+    public CompletableFuture<Void> commit() {
+        final List<Change> changes;
+        synchronized (this) {
+            Preconditions.checkState(!this.committed, "This transaction has already been committed");
+            this.committed = true;
+            changes = new ArrayList<>(this.changes.values());
+        }
+        final List<Supplier<CompletableFuture<?>>> restores = new ArrayList<>(changes.size());
+        return this.dataStore.performBulkOperation(store -> {
+            final List<CompletableFuture<?>> results = new ArrayList<>(changes.size());
+            for (Change change : changes) {
+                restores.add(change.snapshot(store));
+                final CompletableFuture<?> result;
+                try {
+                    result = change.apply(store);
+                } catch (RuntimeException e) {
+                    results.add(Util.failedFuture(e));
+                    break;
+                }
+                results.add(result);
+                if (result.isCompletedExceptionally()) { // Failures that are only known later are handled by restoring
+                    break;
+                }
+            }
+            return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]));
+        }).thenCompose(result -> result)
+                .handle((none, err) -> err)
+                .thenCompose(err -> {
+                    if (err == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    final Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                    return restore(restores).handle((none, restoreErr) -> {
+                        if (restoreErr != null) {
+                            cause.addSuppressed(restoreErr);
+                        }
+                        return null;
+                    }).thenCompose(none -> Util.failedFuture(cause));
+                });
+    }
+
+    private CompletableFuture<Void> restore(List<Supplier<CompletableFuture<?>>> restores) {
+        return this.dataStore.performBulkOperation(store -> {
+            final CompletableFuture<?>[] results = new CompletableFuture<?>[restores.size()];
+            for (int i = 0; i < results.length; ++i) {
+                try {
+                    results[i] = restores.get(i).get();
+                } catch (RuntimeException e) {
+                    results[i] = Util.failedFuture(e);
+                }
+            }
+            return CompletableFuture.allOf(results);
+        }).thenCompose(result -> result);
+    }
+
+    private static abstract class Change {
+        /**
+         * Capture the current value of whatever this change affects.
+         *
+         * @param store The data store the change is written to
+         * @return An action writing the captured value back
+         */
+        abstract Supplier<CompletableFuture<?>> snapshot(DataStore store);
+
+        abstract CompletableFuture<?> apply(DataStore store);
+    }
+
+    /**
+     * Every change to one subject, combined into as few writes as possible.
+     */
+    private class SubjectChange extends Change {
+        private final String type, identifier;
+        private boolean remove; // Whether the subject's data is deleted before the updates are applied
+        private Function<ImmutableSubjectData, ImmutableSubjectData> updates;
+
+        private SubjectChange(String type, String identifier) {
+            this.type = type;
+            this.identifier = identifier;
+        }
+
+        private void add(Function<ImmutableSubjectData, ImmutableSubjectData> action, boolean remove) {
+            if (remove) {
+                this.remove = true;
+                this.updates = null;
+            } else if (this.updates == null) {
+                this.updates = action;
+            } else {
+                this.updates = this.updates.andThen(action);
+            }
+        }
+
+        @Override
+        Supplier<CompletableFuture<?>> snapshot(DataStore store) {
+            final ImmutableSubjectData original = store.isRegistered(this.type, this.identifier) ? store.getData(this.type, this.identifier, null) : null;
+            final SubjectCache cache = subjects.apply(this.type);
+            return () -> original == null ? cache.remove(this.identifier) : cache.set(this.identifier, original);
+        }
+
+        @Override
+        CompletableFuture<?> apply(DataStore store) {
+            final SubjectCache cache = subjects.apply(this.type);
+            CompletableFuture<?> ret = null;
+            if (this.remove) {
+                ret = cache.remove(this.identifier);
+                if (this.updates == null || ret.isCompletedExceptionally()) {
+                    return ret;
+                }
+            }
+            final CompletableFuture<?> updated = cache.update(this.identifier, this.updates);
+            return ret == null ? updated : CompletableFuture.allOf(ret, updated);
+        }
+    }
+}
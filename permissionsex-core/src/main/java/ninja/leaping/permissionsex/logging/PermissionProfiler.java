@@ -0,0 +1,190 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.logging;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sampling profiler counting which permission nodes are checked most often, and which most often have no value set.
+ *
+ * One in every {@code sampleRate} checks is counted into a count-min sketch, so the cost of an unsampled check is a single
+ * random number. A bounded set of candidate nodes with the highest estimated counts is kept to build reports from.
+ */
+public class PermissionProfiler {
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048;
+    private static final int MAX_CANDIDATES = 256;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int sampleMask;
+    private final int sampleRate;
+    private volatile Window window = new Window();
+
+    /**
+     * Counts for a single reporting window.
+     */
+    private static class Window {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLongArray checks = new AtomicLongArray(DEPTH * WIDTH);
+        private final AtomicLongArray undefined = new AtomicLongArray(DEPTH * WIDTH);
+        private final Map<String, Boolean> candidates = new ConcurrentHashMap<>();
+        private final AtomicBoolean pruning = new AtomicBoolean();
+        private volatile long candidateThreshold;
+    }
+
+    /**
+     * A node with its estimated check rates.
+     */
+    public static class NodeRate {
+        private final String node;
+        private final double checksPerSecond, undefinedPerSecond;
+
+        private NodeRate(String node, double checksPerSecond, double undefinedPerSecond) {
+            this.node = node;
+            this.checksPerSecond = checksPerSecond;
+            this.undefinedPerSecond = undefinedPerSecond;
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public double getChecksPerSecond() {
+            return checksPerSecond;
+        }
+
+        public double getUndefinedPerSecond() {
+            return undefinedPerSecond;
+        }
+    }
+
+    /**
+     * Create a new profiler.
+     *
+     * @param sampleRate The number of checks each sample represents. Must be a power of two
+     */
+    public PermissionProfiler(int sampleRate) {
+        Preconditions.checkArgument(sampleRate > 0 && Integer.bitCount(sampleRate) == 1, "sampleRate must be a positive power of two");
+        this.sampleRate = sampleRate;
+        this.sampleMask = sampleRate - 1;
+    }
+
+    public int getSampleRate() {
+        return this.sampleRate;
+    }
+
+    private static int index(int row, int hash) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 15;
+        return row * WIDTH + (h & (WIDTH - 1));
+    }
+
+    private static long estimate(AtomicLongArray sketch, int hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; ++row) {
+            min = Math.min(min, sketch.get(index(row, hash)));
+        }
+        return min;
+    }
+
+    /**
+     * Possibly count a permission check.
+     *
+     * @param permission The permission checked
+     * @param result The result of the check
+     */
+    public void sample(String permission, int result) {
+        if ((ThreadLocalRandom.current().nextInt() & this.sampleMask) != 0) {
+            return;
+        }
+        final Window window = this.window;
+        final int hash = permission.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; ++row) {
+            final int idx = index(row, hash);
+            estimate = Math.min(estimate, window.checks.incrementAndGet(idx));
+            if (result == 0) {
+                window.undefined.incrementAndGet(idx);
+            }
+        }
+
+        if (!window.candidates.containsKey(permission) && estimate > window.candidateThreshold) {
+            window.candidates.put(permission, true);
+            if (window.candidates.size() > MAX_CANDIDATES) {
+                prune(window);
+            }
+        }
+    }
+
+    private void prune(Window window) {
+        if (!window.pruning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final List<Map.Entry<String, Long>> counts = new ArrayList<>(window.candidates.size());
+            for (String node : window.candidates.keySet()) {
+                counts.add(Maps.immutableEntry(node, estimate(window.checks, node.hashCode())));
+            }
+            counts.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            // Keep the top half, and only admit new nodes that are seen more often than the ones dropped
+            for (int i = MAX_CANDIDATES / 2; i < counts.size(); ++i) {
+                window.candidates.remove(counts.get(i).getKey());
+            }
+            window.candidateThreshold = counts.get(MAX_CANDIDATES / 2).getValue();
+        } finally {
+            window.pruning.set(false);
+        }
+    }
+
+    /**
+     * Get the nodes checked most often since the profiler was last reset.
+     *
+     * @param count The maximum number of nodes to return
+     * @param byUndefined Whether to rank by the rate of checks with no value set rather than by the rate of all checks
+     * @return The top nodes, highest rate first
+     */
+    public List<NodeRate> getTopNodes(int count, boolean byUndefined) {
+        final Window window = this.window;
+        final double seconds = Math.max(1e-3, (System.nanoTime() - window.startNanos) / 1e9);
+        final List<NodeRate> rates = new ArrayList<>(window.candidates.size());
+        for (String node : window.candidates.keySet()) {
+            final int hash = node.hashCode();
+            rates.add(new NodeRate(node, estimate(window.checks, hash) * this.sampleRate / seconds,
+                    estimate(window.undefined, hash) * this.sampleRate / seconds));
+        }
+        rates.sort(Comparator.comparingDouble(byUndefined ? NodeRate::getUndefinedPerSecond : NodeRate::getChecksPerSecond).reversed());
+        return ImmutableList.copyOf(rates.subList(0, Math.min(count, rates.size())));
+    }
+
+    /**
+     * Clear all counts and start a new reporting window.
+     */
+    public void reset() {
+        this.window = new Window();
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.logging;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records permission, option, and parent checks into a fixed-size ring buffer.
+ *
+ * Recording a check does not lock or allocate: the values checked are stored by reference next to primitive results and
+ * timestamps, and are only formatted when a snapshot is taken. Once the buffer is full the oldest traces are overwritten.
+ * Snapshots are taken without stopping writers, so traces that are overwritten while being read are skipped.
+ */
+public class TraceRecorder {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    public enum CheckType {
+        PERMISSION, OPTION, PARENTS
+    }
+
+    private static final CheckType[] CHECK_TYPES = CheckType.values();
+
+    private final int capacity;
+    private volatile Buffer buffer;
+    private volatile boolean enabled;
+    private volatile Map.Entry<String, String> subjectFilter;
+    private volatile String nodeFilter;
+
+    /**
+     * Storage for traces, as parallel arrays indexed by slot.
+     */
+    private static class Buffer {
+        private final int mask;
+        private final AtomicLong nextSequence = new AtomicLong();
+        /**
+         * The sequence number (plus one) of the trace stored in each slot. 0 if empty, and -1 while being written.
+         */
+        private final AtomicLongArray published;
+        private final byte[] types;
+        private final Object[] subjects, contexts, nodes, values;
+        private final int[] results;
+        private final long[] nanos;
+
+        private Buffer(int capacity) {
+            this.mask = capacity - 1;
+            this.published = new AtomicLongArray(capacity);
+            this.types = new byte[capacity];
+            this.subjects = new Object[capacity];
+            this.contexts = new Object[capacity];
+            this.nodes = new Object[capacity];
+            this.values = new Object[capacity];
+            this.results = new int[capacity];
+            this.nanos = new long[capacity];
+        }
+    }
+
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new recorder. No memory is allocated for traces until recording is started.
+     *
+     * @param capacity The number of traces to hold. Must be a power of two
+     */
+    public TraceRecorder(int capacity) {
+        Preconditions.checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "capacity must be a positive power of two");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Start recording checks, replacing any existing filters. Traces that have already been recorded are kept.
+     *
+     * @param subjectFilter The only subject to record checks for, or null to record all subjects
+     * @param nodeFilter A prefix that permissions and options have to start with to be recorded, or null to record all nodes
+     */
+    public void start(Map.Entry<String, String> subjectFilter, String nodeFilter) {
+        this.subjectFilter = subjectFilter;
+        this.nodeFilter = nodeFilter == null ? null : nodeFilter.toLowerCase();
+        if (this.buffer == null) {
+            this.buffer = new Buffer(this.capacity);
+        }
+        this.enabled = true;
+    }
+
+    public void stop() {
+        this.enabled = false;
+    }
+
+    /**
+     * Stop recording, and release all recorded traces.
+     */
+    public void clear() {
+        this.enabled = false;
+        this.buffer = null;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public Map.Entry<String, String> getSubjectFilter() {
+        return this.subjectFilter;
+    }
+
+    public String getNodeFilter() {
+        return this.nodeFilter;
+    }
+
+    public void recordPermission(Map.Entry<String, String> subject, Set<Map.Entry<String, String>> contexts, String permission, int result) {
+        if (this.enabled) {
+            record(CheckType.PERMISSION, subject, contexts, permission, result, null);
+        }
+    }
+
+    public void recordOption(Map.Entry<String, String> subject, Set<Map.Entry<String, String>> contexts, String option, String value) {
+        if (this.enabled) {
+            record(CheckType.OPTION, subject, contexts, option, 0, value);
+        }
+    }
+
+    public void recordParents(Map.Entry<String, String> subject, Set<Map.Entry<String, String>> contexts, List<Map.Entry<String, String>> parents) {
+        if (this.enabled) {
+            record(CheckType.PARENTS, subject, contexts, null, 0, parents);
+        }
+    }
+
+    private void record(CheckType type, Map.Entry<String, String> subject, Set<Map.Entry<String, String>> contexts, String node, int result, Object value) {
+        final Map.Entry<String, String> subjectFilter = this.subjectFilter;
+        if (subjectFilter != null && !subjectFilter.equals(subject)) {
+            return;
+        }
+        final String nodeFilter = this.nodeFilter;
+        if (nodeFilter != null && (node == null || !node.regionMatches(true, 0, nodeFilter, 0, nodeFilter.length()))) {
+            return;
+        }
+        final Buffer buffer = this.buffer;
+        if (buffer == null) {
+            return;
+        }
+
+        final long sequence = buffer.nextSequence.getAndIncrement();
+        final int idx = (int) sequence & buffer.mask;
+        buffer.published.getAndSet(idx, -1); // Full barrier, so readers never see the fields below change under a valid sequence
+        buffer.types[idx] = (byte) type.ordinal();
+        buffer.subjects[idx] = subject;
+        buffer.contexts[idx] = contexts;
+        buffer.nodes[idx] = node;
+        buffer.values[idx] = value;
+        buffer.results[idx] = result;
+        buffer.nanos[idx] = System.nanoTime();
+        buffer.published.set(idx, sequence + 1);
+    }
+
+    /**
+     * Copy the currently held traces, from oldest to newest.
+     *
+     * @return The recorded traces
+     */
+    @SuppressWarnings("unchecked")
+    public List<Trace> snapshot() {
+        final Buffer buffer = this.buffer;
+        if (buffer == null) {
+            return ImmutableList.of();
+        }
+        final ImmutableList.Builder<Trace> ret = ImmutableList.builder();
+        final long end = buffer.nextSequence.get();
+        for (long sequence = Math.max(0, end - this.capacity); sequence < end; ++sequence) {
+            final int idx = (int) sequence & buffer.mask;
+            if (buffer.published.get(idx) != sequence + 1) {
+                continue;
+            }
+            final Trace trace = new Trace(CHECK_TYPES[buffer.types[idx]],
+                    (Map.Entry<String, String>) buffer.subjects[idx],
+                    (Set<Map.Entry<String, String>>) buffer.contexts[idx],
+                    (String) buffer.nodes[idx],
+                    buffer.results[idx],
+                    buffer.values[idx],
+                    buffer.nanos[idx]);
+            if (buffer.published.get(idx) == sequence + 1) {
+                ret.add(trace);
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * A single recorded check.
+     */
+    public static class Trace {
+        private final CheckType type;
+        private final Map.Entry<String, String> subject;
+        private final Set<Map.Entry<String, String>> contexts;
+        private final String node;
+        private final int result;
+        private final Object value;
+        private final long nanos;
+
+        private Trace(CheckType type, Map.Entry<String, String> subject, Set<Map.Entry<String, String>> contexts, String node, int result, Object value, long nanos) {
+            this.type = type;
+            this.subject = subject;
+            this.contexts = contexts;
+            this.node = node;
+            this.result = result;
+            this.value = value;
+            this.nanos = nanos;
+        }
+
+        public CheckType getType() {
+            return type;
+        }
+
+        public Map.Entry<String, String> getSubject() {
+            return subject;
+        }
+
+        public Set<Map.Entry<String, String>> getContexts() {
+            return contexts;
+        }
+
+        /**
+         * Get the permission or option checked.
+         *
+         * @return The node checked, or null for parent checks
+         */
+        public String getNode() {
+            return node;
+        }
+
+        /**
+         * Get the result of the check. For permission checks this is the permission value,
+         * for option checks the option's value, and for parent checks the list of parents.
+         *
+         * @return The result of the check
+         */
+        public Object getResult() {
+            return type == CheckType.PERMISSION ? result : value;
+        }
+
+        /**
+         * Get the time this check happened at, as returned by {@link System#nanoTime()}.
+         *
+         * @return The time of this check in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + subject.getKey() + " " + subject.getValue() + " in " + contexts
+                    + (node == null ? "" : " " + node) + ": " + getResult();
+        }
+    }
+}
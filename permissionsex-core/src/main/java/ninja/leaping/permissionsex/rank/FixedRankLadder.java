@@ -173,4 +173,21 @@ public class FixedRankLadder implements RankLadder {
     public List<? extends Entry<String, String>> getRanks() {
         return this.ranks;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FixedRankLadder)) {
+            return false;
+        }
+        final FixedRankLadder other = (FixedRankLadder) o;
+        return this.name.equals(other.name) && this.ranks.equals(other.ranks);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.name.hashCode() + this.ranks.hashCode();
+    }
 }
@@ -0,0 +1,210 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import ninja.leaping.permissionsex.data.CacheBudget;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache keyed by context sets whose maximum size adapts to the number of distinct context sets a subject is actually checked in.
+ *
+ * Accesses are sampled in windows. At the end of each window the cache grows if it had to evict entries while missing often,
+ * and shrinks if fewer distinct context sets were requested than it has room for.
+ *
+ * Since the backing cache is bounded by entry count, entry sizes are accounted against the {@link CacheBudget} by hand
+ * rather than with a maximum weight.
+ *
+ * @param <V> The type of cached value
+ */
+class AdaptiveContextCache<V> {
+    static final int MINIMUM_SIZE = 1;
+    static final int MAXIMUM_SIZE = 64;
+    private static final int INITIAL_SIZE = 5;
+    private static final int WINDOW_SIZE = 128;
+    private static final double GROW_MISS_RATE = 0.1;
+
+    private final CacheLoader<Set<Map.Entry<String, String>>, V> loader;
+    private final Weigher<Set<Map.Entry<String, String>>, V> weigher;
+    private final CacheBudget budget;
+    private final CacheBudget.Member member;
+    private volatile LoadingCache<Set<Map.Entry<String, String>>, V> cache;
+    private volatile int maximumSize;
+
+    // Sampling state
+    private final Set<Set<Map.Entry<String, String>>> windowContexts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger windowRequests = new AtomicInteger();
+    private final AtomicBoolean resizing = new AtomicBoolean();
+    private volatile CacheStats windowStart, retiredStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    AdaptiveContextCache(CacheLoader<Set<Map.Entry<String, String>>, V> loader, Weigher<Set<Map.Entry<String, String>>, V> weigher, CacheBudget budget) {
+        this.loader = Preconditions.checkNotNull(loader, "loader");
+        this.weigher = Preconditions.checkNotNull(weigher, "weigher");
+        this.budget = Preconditions.checkNotNull(budget, "budget");
+        this.member = budget.new Member() {
+            @Override
+            protected void trim(double fraction) {
+                final LoadingCache<Set<Map.Entry<String, String>>, V> cache = AdaptiveContextCache.this.cache;
+                final long goal = getWeight() - (long) (getWeight() * fraction);
+                for (Iterator<Set<Map.Entry<String, String>>> it = cache.asMap().keySet().iterator(); it.hasNext() && getWeight() > goal;) {
+                    cache.invalidate(it.next());
+                }
+            }
+        };
+        this.maximumSize = INITIAL_SIZE;
+        this.cache = build(INITIAL_SIZE);
+        this.windowStart = this.cache.stats();
+    }
+
+    private LoadingCache<Set<Map.Entry<String, String>>, V> build(int size) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .recordStats()
+                .<Set<Map.Entry<String, String>>, V>removalListener(notification -> {
+                    if (notification.getKey() != null && notification.getValue() != null) {
+                        member.remove(weigher.weigh(notification.getKey(), notification.getValue()));
+                    }
+                })
+                .build(new CacheLoader<Set<Map.Entry<String, String>>, V>() {
+                    @Override
+                    public V load(Set<Map.Entry<String, String>> key) throws Exception {
+                        final V ret = loader.load(key);
+                        member.add(weigher.weigh(key, ret));
+                        return ret;
+                    }
+                });
+    }
+
+    public V get(Set<Map.Entry<String, String>> contexts) throws ExecutionException {
+        final LoadingCache<Set<Map.Entry<String, String>>, V> cache = this.cache;
+        final V ret = cache.get(contexts);
+        if (windowContexts.size() <= MAXIMUM_SIZE) {
+            windowContexts.add(contexts);
+        }
+        if (this.cache != cache) { // Resized while loading, after the entries in use were carried over
+            carryOver(this.cache, contexts, ret);
+            cache.invalidate(contexts); // A load finishing after the old cache was cleared would otherwise stay in the budget
+        }
+        budget.checkUsage();
+        if (windowRequests.incrementAndGet() >= WINDOW_SIZE) {
+            adapt();
+        }
+        return ret;
+    }
+
+    private void carryOver(LoadingCache<Set<Map.Entry<String, String>>, V> target, Set<Map.Entry<String, String>> contexts, V value) {
+        if (target.asMap().putIfAbsent(contexts, value) == null) {
+            member.add(weigher.weigh(contexts, value));
+        }
+    }
+
+    public ConcurrentMap<Set<Map.Entry<String, String>>, V> asMap() {
+        return this.cache.asMap();
+    }
+
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * Replace the value cached for a context set, if it is still the expected value.
+     *
+     * @param contexts The context set to replace the value for
+     * @param expected The value expected to be currently cached
+     * @param replacement The new value
+     * @return Whether the value was replaced
+     */
+    public boolean replace(Set<Map.Entry<String, String>> contexts, V expected, V replacement) {
+        LoadingCache<Set<Map.Entry<String, String>>, V> cache;
+        boolean replaced;
+        do { // Repeated on the new backing cache if a resize happened meanwhile, so the replacement is not left in the retired cache
+            cache = this.cache;
+            final int weight = member.add(weigher.weigh(contexts, replacement));
+            replaced = cache.asMap().replace(contexts, expected, replacement);
+            if (!replaced) {
+                member.remove(weight);
+            }
+        } while (this.cache != cache);
+        return replaced;
+    }
+
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Get statistics for this cache over its entire lifetime, including any replaced backing caches.
+     *
+     * @return The cache statistics
+     */
+    public CacheStats stats() {
+        return this.retiredStats.plus(this.cache.stats());
+    }
+
+    private void adapt() {
+        if (!resizing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final LoadingCache<Set<Map.Entry<String, String>>, V> oldCache = this.cache;
+            final CacheStats window = oldCache.stats().minus(this.windowStart);
+            final int distinct = windowContexts.size();
+            final int oldSize = this.maximumSize;
+            int newSize = oldSize;
+
+            if (window.evictionCount() > 0 && window.missRate() > GROW_MISS_RATE) {
+                newSize = Math.min(MAXIMUM_SIZE, Math.max(oldSize * 2, distinct));
+            } else if (distinct * 2 <= oldSize) {
+                newSize = Math.max(MINIMUM_SIZE, distinct);
+            }
+
+            if (newSize != oldSize) {
+                final LoadingCache<Set<Map.Entry<String, String>>, V> newCache = build(newSize);
+                this.maximumSize = newSize;
+                this.cache = newCache;
+                // Only carry over entries that were used recently, so shrinking drops the stale ones. This happens after the swap,
+                // so loads into the old cache either finish in time to be carried over here, or see the swap and carry themselves over
+                for (Set<Map.Entry<String, String>> contexts : windowContexts) {
+                    V value = oldCache.asMap().get(contexts);
+                    if (value != null) {
+                        carryOver(newCache, contexts, value);
+                    }
+                }
+                this.retiredStats = this.retiredStats.plus(oldCache.stats());
+                oldCache.invalidateAll(); // Release the old cache's entries from the budget
+            }
+            this.windowStart = this.cache.stats();
+            windowContexts.clear();
+            windowRequests.set(0);
+        } finally {
+            resizing.set(false);
+        }
+    }
+}
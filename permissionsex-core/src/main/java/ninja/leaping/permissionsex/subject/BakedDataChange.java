@@ -0,0 +1,147 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The differences between two versions of a subject's baked data in one context set.
+ */
+public class BakedDataChange {
+    private final Map<String, Integer> permissions;
+    private final int oldDefaultValue, newDefaultValue;
+    private final Map<String, String> setOptions;
+    private final Set<String> removedOptions;
+    private final List<Map.Entry<String, String>> oldParents, newParents;
+
+    private BakedDataChange(Map<String, Integer> permissions, int oldDefaultValue, int newDefaultValue, Map<String, String> setOptions,
+                            Set<String> removedOptions, List<Map.Entry<String, String>> oldParents, List<Map.Entry<String, String>> newParents) {
+        this.permissions = permissions;
+        this.oldDefaultValue = oldDefaultValue;
+        this.newDefaultValue = newDefaultValue;
+        this.setOptions = setOptions;
+        this.removedOptions = removedOptions;
+        this.oldParents = oldParents;
+        this.newParents = newParents;
+    }
+
+    static BakedDataChange between(BakedSubjectData oldData, BakedSubjectData newData) {
+        final ImmutableMap.Builder<String, String> setOptions = ImmutableMap.builder();
+        final ImmutableSet.Builder<String> removedOptions = ImmutableSet.builder();
+        if (oldData.getOptions() != newData.getOptions()) {
+            for (Map.Entry<String, String> ent : newData.getOptions().entrySet()) {
+                if (!ent.getValue().equals(oldData.getOptions().get(ent.getKey()))) {
+                    setOptions.put(ent);
+                }
+            }
+            for (String key : oldData.getOptions().keySet()) {
+                if (!newData.getOptions().containsKey(key)) {
+                    removedOptions.add(key);
+                }
+            }
+        }
+
+        return new BakedDataChange(oldData.getPermissions().diff(newData.getPermissions()),
+                oldData.getPermissions().getDefaultValue(), newData.getPermissions().getDefaultValue(),
+                setOptions.build(), removedOptions.build(),
+                ImmutableList.copyOf(oldData.getParents()), ImmutableList.copyOf(newData.getParents()));
+    }
+
+    /**
+     * Get the permissions whose values changed.
+     *
+     * @return A map from each changed permission to its new value, or 0 if it is no longer set
+     */
+    public Map<String, Integer> getChangedPermissions() {
+        return this.permissions;
+    }
+
+    public boolean isDefaultValueChanged() {
+        return this.oldDefaultValue != this.newDefaultValue;
+    }
+
+    public int getNewDefaultValue() {
+        return this.newDefaultValue;
+    }
+
+    /**
+     * Get options that have been added or have had their values changed.
+     *
+     * @return A map of changed options to their new values
+     */
+    public Map<String, String> getSetOptions() {
+        return this.setOptions;
+    }
+
+    public Set<String> getRemovedOptions() {
+        return this.removedOptions;
+    }
+
+    /**
+     * Get whether the subject's parents, or their order, changed.
+     *
+     * @return Whether parents changed
+     */
+    public boolean areParentsChanged() {
+        return !this.oldParents.equals(this.newParents);
+    }
+
+    /**
+     * Get the full list of the subject's parents after the change, in inheritance order.
+     *
+     * @return The new parents
+     */
+    public List<Map.Entry<String, String>> getNewParents() {
+        return this.newParents;
+    }
+
+    public Set<Map.Entry<String, String>> getAddedParents() {
+        return ImmutableSet.copyOf(Sets.difference(ImmutableSet.copyOf(this.newParents), ImmutableSet.copyOf(this.oldParents)));
+    }
+
+    public Set<Map.Entry<String, String>> getRemovedParents() {
+        return ImmutableSet.copyOf(Sets.difference(ImmutableSet.copyOf(this.oldParents), ImmutableSet.copyOf(this.newParents)));
+    }
+
+    /**
+     * Get whether nothing visible changed between the two versions of baked data.
+     *
+     * @return Whether this change is empty
+     */
+    public boolean isEmpty() {
+        return this.permissions.isEmpty() && !isDefaultValueChanged() && this.setOptions.isEmpty()
+                && this.removedOptions.isEmpty() && !areParentsChanged();
+    }
+
+    @Override
+    public String toString() {
+        return "BakedDataChange{" +
+                "permissions=" + permissions +
+                ", defaultValue=" + oldDefaultValue + "->" + newDefaultValue +
+                ", setOptions=" + setOptions +
+                ", removedOptions=" + removedOptions +
+                ", parents=" + oldParents + "->" + newParents +
+                '}';
+    }
+}
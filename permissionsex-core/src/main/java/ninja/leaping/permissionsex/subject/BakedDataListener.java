@@ -0,0 +1,35 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A listener notified when a subject's baked data changes.
+ */
+@FunctionalInterface
+public interface BakedDataListener {
+    /**
+     * Called after a subject's baked data in a context set has been replaced with data that differs from it.
+     *
+     * @param subject The subject whose data changed
+     * @param contexts The context set the data changed in
+     * @param change The differences between the old and new data
+     */
+    void onBakedDataChanged(CalculatedSubject subject, Set<Map.Entry<String, String>> contexts, BakedDataChange change);
+}
@@ -17,16 +17,18 @@
 package ninja.leaping.permissionsex.subject;
 
 import com.google.common.base.Preconditions;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.data.Caching;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.data.SizeEstimates;
 import ninja.leaping.permissionsex.data.SubjectDataReference;
+import ninja.leaping.permissionsex.logging.PermissionProfiler;
 import ninja.leaping.permissionsex.util.NodeTree;
+import ninja.leaping.permissionsex.util.PermissionMemo;
 
 import java.util.Collections;
 import java.util.List;
@@ -34,30 +36,64 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Map.Entry;
+import static ninja.leaping.permissionsex.util.Translations.t;
 
 /**
  * This is a holder that maintains the current subject data state
  */
 public class CalculatedSubject implements Caching<ImmutableSubjectData> {
+    private static final int MAX_BAKE_ATTEMPTS = 3;
+
     private final SubjectDataBaker baker;
     private final Map.Entry<String, String> identifier;
     private final PermissionsEx pex;
     private final SubjectDataReference ref, transientRef;
+    /**
+     * Incremented every time data this subject depends on changes. Baked data is only valid for the version it was baked at
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private final AdaptiveContextCache<VersionedBake> data;
+    private final Set<BakedDataListener> bakedDataListeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * Baked data along with the versions that were current when baking started.
+     * Permission check results are memoized alongside the baked data, so they are discarded together.
+     */
+    private static class VersionedBake {
+        private final BakedSubjectData data;
+        private final PermissionMemo memo = new PermissionMemo();
+        private final long generation, version;
 
-    private final LoadingCache<Set<Map.Entry<String, String>>, BakedSubjectData> data = CacheBuilder.newBuilder().maximumSize(5)
-            .build(new CacheLoader<Set<Map.Entry<String, String>>, BakedSubjectData>() {
-        @Override
-        public BakedSubjectData load(Set<Map.Entry<String, String>> contexts) throws Exception {
-            return baker.bake(CalculatedSubject.this, contexts);
+        private VersionedBake(BakedSubjectData data, long generation, long version) {
+            this.data = data;
+            this.generation = generation;
+            this.version = version;
         }
-    });
+
+        private int estimateSize(Set<Map.Entry<String, String>> contexts) {
+            return SizeEstimates.ofContexts(contexts) + SizeEstimates.OBJECT
+                    + data.getPermissions().estimateSize()
+                    + SizeEstimates.ofEntries(data.getParents())
+                    + SizeEstimates.ofOptions(data.getOptions())
+                    + memo.estimateSize();
+        }
+    }
 
     public CalculatedSubject(SubjectDataBaker baker, Map.Entry<String, String> identifier, PermissionsEx pex) throws ExecutionException {
         this.baker = Preconditions.checkNotNull(baker, "baker");
         this.identifier = Preconditions.checkNotNull(identifier, "identifier");
         this.pex = Preconditions.checkNotNull(pex, "pex");
+        this.data = new AdaptiveContextCache<>(new CacheLoader<Set<Map.Entry<String, String>>, VersionedBake>() {
+            @Override
+            public VersionedBake load(Set<Map.Entry<String, String>> contexts) throws Exception {
+                return bake(contexts);
+            }
+        }, (contexts, bake) -> bake.estimateSize(contexts), pex.getCacheBudget());
         this.ref = SubjectDataReference.forSubject(identifier.getValue(), pex.getSubjects(identifier.getKey()));
         this.transientRef = SubjectDataReference.forSubject(identifier.getValue(), pex.getTransientSubjects(identifier.getKey()));
     }
@@ -66,18 +102,113 @@ public class CalculatedSubject implements Caching<ImmutableSubjectData> {
         return identifier;
     }
 
-    private String stringIdentifier() {
-        return this.identifier.getKey() + " " + this.identifier.getValue();
+    /**
+     * Drop all baked data held for this subject. It will be baked again the next time it is requested.
+     */
+    public void releaseBakedData() {
+        data.invalidateAll();
     }
 
     PermissionsEx getManager() {
         return pex;
     }
 
+    /**
+     * Bake data for a context set. Baking registers this subject as a listener with every subject it visits before reading
+     * that subject's data, so a change to any of them made during the bake either is part of the result or bumps this subject's version.
+     * The bake is repeated while that happens, up to a limit, after which the stale result is returned and baked again on the next request.
+     */
+    private VersionedBake bake(Set<Map.Entry<String, String>> contexts) throws ExecutionException {
+        VersionedBake ret;
+        int attempts = 0;
+        do {
+            // Versions must be read before baking so that any change that happens while baking marks the result as stale
+            final long generation = pex.getBakeGeneration(), version = this.version.get();
+            ret = new VersionedBake(baker.bake(this, contexts), generation, version);
+        } while (!isCurrent(ret) && ++attempts < MAX_BAKE_ATTEMPTS);
+        return ret;
+    }
+
+    private boolean isCurrent(VersionedBake bake) {
+        return bake.version == this.version.get() && bake.generation == pex.getBakeGeneration();
+    }
+
+    private VersionedBake getBake(Set<Map.Entry<String, String>> contexts) throws ExecutionException {
+        VersionedBake ret = data.get(contexts);
+        if (!isCurrent(ret)) {
+            final VersionedBake updated = bake(contexts);
+            if (data.replace(contexts, ret, updated) && !bakedDataListeners.isEmpty()) {
+                final BakedDataChange change = BakedDataChange.between(ret.data, updated.data);
+                if (!change.isEmpty()) {
+                    for (BakedDataListener listener : bakedDataListeners) {
+                        listener.onBakedDataChanged(this, contexts, change);
+                    }
+                }
+            }
+            ret = updated;
+        }
+        return ret;
+    }
+
+    /**
+     * Add a listener to be notified with the differences whenever this subject's baked data changes.
+     *
+     * Once a listener is registered, baked data that goes stale is rebaked in the background so that changes are
+     * delivered without waiting for the data to be requested. Context sets whose baked data is no longer held are not rebaked.
+     *
+     * @param listener The listener to add
+     */
+    public void addBakedDataListener(BakedDataListener listener) {
+        this.bakedDataListeners.add(Preconditions.checkNotNull(listener, "listener"));
+    }
+
+    public void removeBakedDataListener(BakedDataListener listener) {
+        this.bakedDataListeners.remove(listener);
+    }
+
+    /**
+     * Rebake any stale data held for this subject, if anybody is listening for changes.
+     */
+    private void refreshForListeners() {
+        if (this.bakedDataListeners.isEmpty()) {
+            return;
+        }
+        pex.getAsyncExecutor().execute(() -> {
+            for (Set<Map.Entry<String, String>> contexts : data.asMap().keySet()) {
+                try {
+                    getBake(contexts);
+                } catch (ExecutionException e) {
+                    pex.getLogger().warn(t("Unable to rebake data for %s in contexts %s: %s", this.identifier, contexts, e.getMessage()), e);
+                }
+            }
+        });
+    }
+
+    private BakedSubjectData getData(Set<Map.Entry<String, String>> contexts) throws ExecutionException {
+        return getBake(contexts).data;
+    }
+
+    /**
+     * Get a memo for the results of permission checks in the given contexts. The memo is discarded whenever this
+     * subject's baked data in those contexts changes, so results stored in it only need to be stamped with any state
+     * outside of PermissionsEx they depend on.
+     *
+     * @param contexts The contexts permissions are checked in
+     * @return The memo for these contexts
+     */
+    public PermissionMemo getPermissionMemo(Set<Map.Entry<String, String>> contexts) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        try {
+            return getBake(contexts).memo;
+        } catch (ExecutionException e) {
+            return new PermissionMemo();
+        }
+    }
+
     public NodeTree getPermissions(Set<Map.Entry<String, String>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
         try {
-            return data.get(contexts).getPermissions();
+            return getData(contexts).getPermissions();
         } catch (ExecutionException e) {
             return NodeTree.of(Collections.<String, Integer>emptyMap());
         }
@@ -86,7 +217,7 @@ public class CalculatedSubject implements Caching<ImmutableSubjectData> {
     public Map<String, String> getOptions(Set<Map.Entry<String, String>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
         try {
-            return data.get(contexts).getOptions();
+            return getData(contexts).getOptions();
         } catch (ExecutionException e) {
             return ImmutableMap.of();
         }
@@ -95,36 +226,55 @@ public class CalculatedSubject implements Caching<ImmutableSubjectData> {
     public List<Map.Entry<String, String>> getParents(Set<Map.Entry<String, String>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
         try {
-            List<Map.Entry<String, String>> parents = data.get(contexts).getParents();
-            if (pex.hasDebugMode()) {
-                pex.getLogger().info("Parents checked in " + contexts + " for " +  stringIdentifier() + ": " + parents);
-            }
+            List<Map.Entry<String, String>> parents = getData(contexts).getParents();
+            pex.getTraceRecorder().recordParents(this.identifier, contexts, parents);
             return parents;
         } catch (ExecutionException e) {
             return ImmutableList.of();
         }
     }
 
-    private Set<Set<Map.Entry<String, String>>> getActiveContexts() {
-        return data.asMap().keySet();
+    /**
+     * Check whether any baked data currently held for this subject inherits from the given subject.
+     * This only looks at existing baked data, so it never triggers a bake.
+     *
+     * @param parent The potential parent
+     * @return Whether this subject's baked data depends on the parent
+     */
+    private boolean dependsOn(Map.Entry<String, String> parent) {
+        for (VersionedBake bake : data.asMap().values()) {
+            if (bake.data.getParents().contains(parent)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public int getPermission(Set<Entry<String, String>> contexts, String permission) {
         int ret = getPermissions(contexts).get(Preconditions.checkNotNull(permission, "permission"));
-        if (pex.hasDebugMode()) {
-            pex.getLogger().info("Permission " + permission + " checked in " + contexts + " for " + stringIdentifier() + ": " + ret);
+        pex.getTraceRecorder().recordPermission(this.identifier, contexts, permission, ret);
+        final PermissionProfiler profiler = pex.getProfiler();
+        if (profiler != null) {
+            profiler.sample(permission, ret);
         }
         return ret;
     }
 
     public Optional<String> getOption(Set<Entry<String, String>> contexts, String option) {
         String val = getOptions(contexts).get(Preconditions.checkNotNull(option, "option"));
-        if (pex.hasDebugMode()) {
-            pex.getLogger().info("Option " + option + " checked in " + contexts + " for " + stringIdentifier() + ": " + val);
-        }
+        pex.getTraceRecorder().recordOption(this.identifier, contexts, option, val);
         return Optional.ofNullable(val);
     }
 
+    /**
+     * Get statistics for the cache of baked data held for this subject in each context set it has been checked in.
+     *
+     * @return Hit and miss statistics for this subject's baked data
+     */
+    public CacheStats getContextCacheStats() {
+        return data.stats();
+    }
+
     public SubjectDataReference data() {
         return this.ref;
     }
@@ -135,13 +285,12 @@ public class CalculatedSubject implements Caching<ImmutableSubjectData> {
 
     @Override
     public void clearCache(ImmutableSubjectData newData) {
-        data.invalidateAll();
+        this.version.incrementAndGet();
+        refreshForListeners();
         for (CalculatedSubject subject : pex.getActiveCalculatedSubjects()) {
-            for (Set<Map.Entry<String, String>> ent : subject.getActiveContexts()) {
-                if (subject.getParents(ent).contains(this.identifier)) {
-                    subject.data.invalidateAll();
-                    break;
-                }
+            if (subject != this && subject.dependsOn(this.identifier)) {
+                subject.version.incrementAndGet();
+                subject.refreshForListeners();
             }
         }
     }
@@ -25,6 +25,7 @@ import ninja.leaping.permissionsex.data.ContextInheritance;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
 import ninja.leaping.permissionsex.util.Combinations;
 import ninja.leaping.permissionsex.util.NodeTree;
+import ninja.leaping.permissionsex.util.Object2IntHashMap;
 import ninja.leaping.permissionsex.util.glob.GlobParseException;
 import ninja.leaping.permissionsex.util.glob.Globs;
 
@@ -51,7 +52,7 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
 
     private static class BakeState {
         // Accumulators
-        private final Map<String, Integer> combinedPermissions = new HashMap<>();
+        private final Object2IntHashMap<String> combinedPermissions = new Object2IntHashMap<>();
         private final List<Entry<String, String>> parents = new ArrayList<>();
         private final Map<String, String> options = new HashMap<>();
         private int defaultValue;
@@ -117,30 +118,28 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
     }
 
     private void putPermIfNecessary(BakeState state, String perm, int val) {
-        Integer existing = state.combinedPermissions.get(perm);
-        if (existing == null || Math.abs(val) > Math.abs(existing)) {
+        if (Math.abs(val) > Math.abs(state.combinedPermissions.getInt(perm, 0)) || !state.combinedPermissions.containsKey(perm)) {
             state.combinedPermissions.put(perm, val);
         }
     }
 
     private void visitSingle(BakeState state, ImmutableSubjectData data, Set<Entry<String, String>> specificCombination, int inheritanceLevel) {
-        for (Map.Entry<String, Integer> ent : data.getPermissions(specificCombination).entrySet()) {
-            String perm = ent.getKey();
-            if (ent.getKey().startsWith("#")) { // Prefix to exclude from inheritance
+        data.getPermissionValues(specificCombination).forEachInt((perm, value) -> {
+            if (perm.startsWith("#")) { // Prefix to exclude from inheritance
                 if (inheritanceLevel > 1) {
-                    continue;
+                    return;
                 }
                 perm = perm.substring(1);
             }
 
             try {
                 for (String matched : Globs.parse(perm)) {
-                    putPermIfNecessary(state, matched, ent.getValue());
+                    putPermIfNecessary(state, matched, value);
                 }
             } catch (GlobParseException e) { // If the permission is not a valid glob, assume it's a literal
-                putPermIfNecessary(state, perm, ent.getValue());
+                putPermIfNecessary(state, perm, value);
             }
-        }
+        });
 
         state.parents.addAll(data.getParents(specificCombination));
         for (Map.Entry<String, String> ent : data.getOptions(specificCombination).entrySet()) {
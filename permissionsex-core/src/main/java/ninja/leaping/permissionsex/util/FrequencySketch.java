@@ -0,0 +1,111 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An approximate count of how often keys have been seen recently, used to decide whether a key is worth caching.
+ *
+ * Counts are kept in a count-min sketch of small saturating counters. Once a number of increments proportional to the
+ * sketch's size has been recorded, every counter is halved, so keys that were popular a long time ago fade out.
+ * Estimates may be too high, but never too low.
+ */
+public class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAXIMUM_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb0e8f1a3, 0x3d2e6c5f, 0x7a1b4e9d};
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicLong additions = new AtomicLong();
+
+    /**
+     * Create a new sketch.
+     *
+     * @param expectedKeys The number of distinct keys expected to be counted at once
+     */
+    public FrequencySketch(int expectedKeys) {
+        Preconditions.checkArgument(expectedKeys > 0, "expectedKeys must be positive");
+        final int width = Integer.highestOneBit(Math.max(16, expectedKeys - 1) << 1);
+        this.counters = new AtomicIntegerArray(width * DEPTH);
+        this.mask = width - 1;
+        this.sampleSize = width * 10;
+    }
+
+    /**
+     * Record that a key has been seen.
+     *
+     * @param key The key
+     */
+    public void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < DEPTH; ++row) {
+            final int index = index(row, hash);
+            int count;
+            while ((count = counters.get(index)) < MAXIMUM_COUNT) {
+                if (counters.compareAndSet(index, count, count + 1)) {
+                    added = true;
+                    break;
+                }
+            }
+        }
+        if (added && additions.incrementAndGet() % sampleSize == 0) {
+            age();
+        }
+    }
+
+    /**
+     * Get the estimated number of times a key has been seen recently.
+     *
+     * @param key The key
+     * @return The estimated count, at most 15
+     */
+    public int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        int min = MAXIMUM_COUNT;
+        for (int row = 0; row < DEPTH; ++row) {
+            min = Math.min(min, counters.get(index(row, hash)));
+        }
+        return min;
+    }
+
+    private void age() {
+        for (int i = 0; i < counters.length(); ++i) {
+            int count;
+            do {
+                count = counters.get(i);
+            } while (count != 0 && !counters.compareAndSet(i, count, count >>> 1));
+        }
+    }
+
+    private int index(int row, int hash) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return row * (mask + 1) + (h & mask);
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 15);
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches heap memory pools and runs an action when the fraction of a pool in use exceeds a threshold.
+ *
+ * Where supported, the threshold is checked against usage after garbage collection, so that only memory that could not be
+ * reclaimed counts towards the threshold. The action runs asynchronously, and at most once at a time.
+ *
+ * Usage thresholds are shared by everything running in the JVM. Thresholds set before the monitor was created are
+ * restored when it is closed, and notifications for usage below this monitor's own threshold are ignored.
+ */
+public class MemoryPressureMonitor implements NotificationListener, AutoCloseable {
+    private final Runnable action;
+    private final Executor executor;
+    private final List<MemoryPoolMXBean> pools;
+    private final Map<String, Long> thresholds = new HashMap<>();
+    private final Map<String, Long> previousThresholds = new HashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Create and start a new monitor.
+     *
+     * @param threshold The fraction of a heap pool's maximum size that has to be used before the action runs, on the range (0, 1)
+     * @param action The action to run when memory is short
+     * @param executor The executor to run the action on
+     */
+    public MemoryPressureMonitor(double threshold, Runnable action, Executor executor) {
+        Preconditions.checkArgument(threshold > 0 && threshold < 1, "threshold must be between 0 and 1");
+        this.action = Preconditions.checkNotNull(action, "action");
+        this.executor = Preconditions.checkNotNull(executor, "executor");
+
+        ImmutableList.Builder<MemoryPoolMXBean> pools = ImmutableList.builder();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            final long max = pool.getUsage().getMax();
+            if (pool.getType() != MemoryType.HEAP || max <= 0) {
+                continue;
+            }
+            final long bytes = (long) (max * threshold);
+            if (pool.isCollectionUsageThresholdSupported()) {
+                previousThresholds.put(pool.getName(), pool.getCollectionUsageThreshold());
+                pool.setCollectionUsageThreshold(bytes);
+            } else if (pool.isUsageThresholdSupported()) {
+                previousThresholds.put(pool.getName(), pool.getUsageThreshold());
+                pool.setUsageThreshold(bytes);
+            } else {
+                continue;
+            }
+            thresholds.put(pool.getName(), bytes);
+            pools.add(pool);
+        }
+        this.pools = pools.build();
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, this);
+    }
+
+    /**
+     * Get whether any memory pools can be monitored on this JVM.
+     *
+     * @return Whether this monitor will ever run its action
+     */
+    public boolean isActive() {
+        return !this.pools.isEmpty();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        final String type = notification.getType();
+        if (!type.equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)
+                && !type.equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED)) {
+            return;
+        }
+        final MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification.getUserData());
+        final Long threshold = thresholds.get(info.getPoolName());
+        if (threshold == null || info.getUsage().getUsed() < threshold) { // Caused by a threshold someone else set
+            return;
+        }
+
+        if (running.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        action.run();
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                running.set(false);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this, null, this);
+        } catch (ListenerNotFoundException ignore) {
+        }
+        for (MemoryPoolMXBean pool : this.pools) {
+            final long previous = previousThresholds.get(pool.getName());
+            if (pool.isCollectionUsageThresholdSupported()) {
+                if (pool.getCollectionUsageThreshold() == thresholds.get(pool.getName())) { // Unless someone changed it since
+                    pool.setCollectionUsageThreshold(previous);
+                }
+            } else if (pool.getUsageThreshold() == thresholds.get(pool.getName())) {
+                pool.setUsageThreshold(previous);
+            }
+        }
+    }
+}
@@ -61,24 +61,49 @@ public class NodeTree {
      * @return The newly created node tree
      */
     public static NodeTree of(Map<String, Integer> values, int defaultValue) {
+        if (values instanceof Object2IntMap) {
+            @SuppressWarnings("unchecked")
+            final Object2IntMap<String> primitiveValues = (Object2IntMap<String>) values;
+            return of(primitiveValues, defaultValue);
+        }
         NodeTree newTree = new NodeTree(defaultValue);
         for (Map.Entry<String, Integer> value : values.entrySet()) {
-            String[] parts = SPLIT_REGEX.split(value.getKey().toLowerCase());
-            Node currentNode = newTree.rootNode;
-            for (String part : parts) {
-                if (currentNode.children.containsKey(part)) {
-                    currentNode = currentNode.children.get(part);
-                } else {
-                    Node newNode = new Node(new HashMap<String, Node>());
-                    currentNode.children.put(part, newNode);
-                    currentNode = newNode;
-                }
-            }
-            currentNode.value = value.getValue();
+            newTree.put(value.getKey(), value.getValue());
         }
         return newTree;
     }
 
+    /**
+     * Create a new node tree with the given primitive values, and the specified root fallback value.
+     *
+     * @param values The values to be contained in this node tree
+     * @param defaultValue The fallback value for any completely undefined nodes
+     * @return The newly created node tree
+     */
+    public static NodeTree of(Object2IntMap<String> values, int defaultValue) {
+        NodeTree newTree = new NodeTree(defaultValue);
+        values.forEachInt(newTree::put);
+        return newTree;
+    }
+
+    /**
+     * Set a value in this tree while it is being built. Trees must not be modified once they have been returned.
+     */
+    private void put(String node, int value) {
+        String[] parts = SPLIT_REGEX.split(node.toLowerCase());
+        Node currentNode = this.rootNode;
+        for (String part : parts) {
+            if (currentNode.children.containsKey(part)) {
+                currentNode = currentNode.children.get(part);
+            } else {
+                Node newNode = new Node(new HashMap<String, Node>());
+                currentNode.children.put(part, newNode);
+                currentNode = newNode;
+            }
+        }
+        currentNode.value = value;
+    }
+
     /**
      * Returns the value assigned to a specific node, or the nearest parent value in the tree if the node itself is undefined.
      *
@@ -102,6 +127,58 @@ public class NodeTree {
 
     }
 
+    /**
+     * Get the fallback value for nodes that are completely undefined in this tree.
+     *
+     * @return The default value
+     */
+    public int getDefaultValue() {
+        return this.rootNode.value;
+    }
+
+    /**
+     * Find the nodes whose values differ between this tree and another tree. The default value is not included,
+     * see {@link #getDefaultValue()}.
+     *
+     * This walks both trees in full, which is linear in their size. Only subtrees that are the same objects in both trees,
+     * as in a tree derived from the other through {@link #withValue(String, int)}, are skipped. Trees built separately,
+     * such as two bakes of the same subject, share no nodes even where their contents are equal.
+     *
+     * @param other The tree to compare against
+     * @return A map of every node with a different value in the other tree to its value there, or 0 if it is unset there
+     */
+    public Map<String, Integer> diff(NodeTree other) {
+        final Map<String, Integer> ret = new HashMap<>();
+        diffChildren(ret, null, this.rootNode, other.rootNode);
+        return ImmutableMap.copyOf(ret);
+    }
+
+    private static void diff(Map<String, Integer> changes, String path, Node oldNode, Node newNode) {
+        if (oldNode == newNode) {
+            return;
+        }
+        final int oldValue = oldNode == null ? 0 : oldNode.value, newValue = newNode == null ? 0 : newNode.value;
+        if (oldValue != newValue) {
+            changes.put(path, newValue);
+        }
+        diffChildren(changes, path, oldNode, newNode);
+    }
+
+    private static void diffChildren(Map<String, Integer> changes, String path, Node oldNode, Node newNode) {
+        if (oldNode != null) {
+            for (Map.Entry<String, Node> ent : oldNode.children.entrySet()) {
+                diff(changes, path == null ? ent.getKey() : path + '.' + ent.getKey(), ent.getValue(), newNode == null ? null : newNode.children.get(ent.getKey()));
+            }
+        }
+        if (newNode != null) {
+            for (Map.Entry<String, Node> ent : newNode.children.entrySet()) {
+                if (oldNode == null || !oldNode.children.containsKey(ent.getKey())) {
+                    diff(changes, path == null ? ent.getKey() : path + '.' + ent.getKey(), null, ent.getValue());
+                }
+            }
+        }
+    }
+
     /**
      * Convert this node tree into a map of the defined nodes in this tree.
      *
@@ -124,6 +201,23 @@ public class NodeTree {
         }
     }
 
+    /**
+     * Estimate the number of bytes of heap used by this tree.
+     *
+     * @return The estimated size of this tree
+     */
+    public int estimateSize() {
+        return 16 + estimateSize(this.rootNode);
+    }
+
+    private static int estimateSize(Node node) {
+        int size = 64; // The node, its value, and its child map
+        for (Map.Entry<String, Node> ent : node.children.entrySet()) {
+            size += 32 + 40 + 2 * ent.getKey().length() + estimateSize(ent.getValue());
+        }
+        return size;
+    }
+
     /**
      * Return a new NodeTree instance with a single changed value.
      *
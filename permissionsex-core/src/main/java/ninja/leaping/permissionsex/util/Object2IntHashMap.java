@@ -0,0 +1,135 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A mutable hash map from objects to primitive ints, using open addressing with linear probing in parallel key and value arrays.
+ * Entries cannot be removed individually, only all at once. This class is not thread-safe.
+ *
+ * @param <K> The key type
+ */
+public class Object2IntHashMap<K> implements Object2IntMap<K> {
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+
+    public Object2IntHashMap() {
+        this(MINIMUM_CAPACITY / 2);
+    }
+
+    /**
+     * Create a new map with room for some number of entries before it has to resize.
+     *
+     * @param expectedSize The expected number of entries
+     */
+    public Object2IntHashMap(int expectedSize) {
+        Preconditions.checkArgument(expectedSize >= 0, "expectedSize must not be negative");
+        final int capacity = Integer.highestOneBit((Math.max(MINIMUM_CAPACITY, expectedSize * 2) - 1) << 1);
+        this.keys = new Object[capacity];
+        this.values = new int[capacity];
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int indexOf(Object key) {
+        final Object[] keys = this.keys;
+        final int mask = keys.length - 1;
+        int index = spread(key.hashCode()) & mask;
+        Object existing;
+        while ((existing = keys[index]) != null && !existing.equals(key)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && this.keys[indexOf(key)] != null;
+    }
+
+    @Override
+    public int getInt(Object key, int defaultValue) {
+        if (key == null) {
+            return defaultValue;
+        }
+        final int index = indexOf(key);
+        return this.keys[index] == null ? defaultValue : this.values[index];
+    }
+
+    /**
+     * Set the value for a key.
+     *
+     * @param key The key to set
+     * @param value The new value
+     */
+    public void put(K key, int value) {
+        Preconditions.checkNotNull(key, "key");
+        final int index = indexOf(key);
+        this.values[index] = value;
+        if (this.keys[index] == null) {
+            this.keys[index] = key;
+            if (++this.size * 2 > this.keys.length) {
+                resize();
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, null);
+        this.size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEachInt(ObjIntConsumer<? super K> action) {
+        final Object[] keys = this.keys;
+        final int[] values = this.values;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != null) {
+                action.accept((K) keys[i], values[i]);
+            }
+        }
+    }
+
+    private void resize() {
+        final Object[] oldKeys = this.keys;
+        final int[] oldValues = this.values;
+        this.keys = new Object[oldKeys.length * 2];
+        this.values = new int[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != null) {
+                final int index = indexOf(oldKeys[i]);
+                this.keys[index] = oldKeys[i];
+                this.values[index] = oldValues[i];
+            }
+        }
+    }
+}
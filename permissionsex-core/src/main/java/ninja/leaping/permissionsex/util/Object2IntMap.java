@@ -0,0 +1,50 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A read-only view of a map from objects to primitive ints, so values can be read without boxing them.
+ *
+ * @param <K> The key type
+ */
+public interface Object2IntMap<K> {
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    boolean containsKey(Object key);
+
+    /**
+     * Get the value for a key without boxing it.
+     *
+     * @param key The key to get
+     * @param defaultValue The value to return if the key is not present
+     * @return The key's value
+     */
+    int getInt(Object key, int defaultValue);
+
+    /**
+     * Perform an action for every entry in this map without boxing values.
+     *
+     * @param action The action to perform
+     */
+    void forEachInt(ObjIntConsumer<? super K> action);
+}
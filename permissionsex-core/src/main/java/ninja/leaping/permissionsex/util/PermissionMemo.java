@@ -0,0 +1,132 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small, fixed-size memo of permission check results. Entries are stored in an open-addressing table keyed by the
+ * permission's hash, and a colliding entry simply replaces an older one, so this never grows.
+ *
+ * Each result is stored with a stamp describing any external state it was computed against.
+ * A result is only returned if the stamp it was stored with matches the stamp it is looked up with.
+ */
+public class PermissionMemo {
+    /**
+     * Returned from {@link #get(String, long)} when no result is memoized.
+     */
+    public static final int MISSING = Integer.MIN_VALUE;
+    public static final int DEFAULT_CAPACITY = 64;
+    private static final int MAX_PROBES = 4;
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+
+    private static class Entry {
+        private final String permission;
+        private final long stamp;
+        private final int value;
+
+        private Entry(String permission, long stamp, int value) {
+            this.permission = permission;
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    public PermissionMemo() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new memo.
+     *
+     * @param capacity The number of results that can be held. Must be a power of two
+     */
+    public PermissionMemo(int capacity) {
+        Preconditions.checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "capacity must be a positive power of two");
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Get the memoized result for a permission.
+     *
+     * @param permission The permission to look up
+     * @param stamp The current stamp of any external state the result depends on
+     * @return The memoized result, or {@link #MISSING}
+     */
+    public int get(String permission, long stamp) {
+        final int start = spread(permission.hashCode());
+        for (int i = 0; i < MAX_PROBES; ++i) {
+            final Entry entry = this.entries.get((start + i) & this.mask);
+            if (entry == null) {
+                break;
+            }
+            if (entry.permission == permission || entry.permission.equals(permission)) {
+                return entry.stamp == stamp ? entry.value : MISSING;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Memoize the result for a permission.
+     *
+     * @param permission The permission checked
+     * @param stamp The stamp of any external state the result was computed against
+     * @param value The result
+     */
+    public void put(String permission, long stamp, int value) {
+        final Entry newEntry = new Entry(permission, stamp, value);
+        final int start = spread(permission.hashCode());
+        for (int i = 0; i < MAX_PROBES; ++i) {
+            final int idx = (start + i) & this.mask;
+            final Entry entry = this.entries.get(idx);
+            if (entry == null || entry.permission.equals(permission)) {
+                this.entries.set(idx, newEntry);
+                return;
+            }
+        }
+        this.entries.set(start & this.mask, newEntry);
+    }
+
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * Estimate the number of bytes of heap used by this memo when full.
+     *
+     * @return The estimated size of this memo
+     */
+    public int estimateSize() {
+        return 32 + getCapacity() * 40;
+    }
+
+    public void clear() {
+        for (int i = 0; i < this.entries.length(); ++i) {
+            this.entries.set(i, null);
+        }
+    }
+}
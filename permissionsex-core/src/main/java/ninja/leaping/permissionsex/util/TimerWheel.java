@@ -0,0 +1,169 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel for running actions after a delay, with a resolution of one tick.
+ *
+ * Scheduling and cancelling are constant time no matter how many actions are pending, and advancing the wheel only looks at the
+ * actions in a single bucket. Actions are keyed, so that scheduling an action replaces any action pending for the same key.
+ * The wheel does not advance by itself; {@link #tick()} has to be called once per tick duration.
+ *
+ * @param <K> The type of key actions are scheduled under
+ */
+public class TimerWheel<K> {
+    private final long tickMillis;
+    private final List<Set<Timeout<K>>> buckets;
+    private final Map<K, Timeout<K>> timeouts = new HashMap<>();
+    private long currentTick;
+
+    /**
+     * Create a new timer wheel.
+     *
+     * @param tickDuration The duration of each tick
+     * @param unit The unit of the tick duration
+     * @param wheelSize The number of buckets in the wheel. Delays longer than a full turn of the wheel are still supported
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        Preconditions.checkArgument(tickDuration > 0, "tickDuration must be positive");
+        Preconditions.checkArgument(wheelSize > 0, "wheelSize must be positive");
+        this.tickMillis = Math.max(1, unit.toMillis(tickDuration));
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; ++i) {
+            this.buckets.add(new LinkedHashSet<>());
+        }
+    }
+
+    public long getTickMillis() {
+        return this.tickMillis;
+    }
+
+    /**
+     * Schedule an action to run after a delay, replacing any action pending for the same key.
+     *
+     * @param key The key to schedule the action under
+     * @param delay The minimum delay before the action runs, rounded up to a whole number of ticks
+     * @param unit The unit of the delay
+     * @param action The action to run
+     */
+    public synchronized void schedule(K key, long delay, TimeUnit unit, Runnable action) {
+        Preconditions.checkNotNull(key, "key");
+        Preconditions.checkNotNull(action, "action");
+        cancel(key);
+
+        final long ticks = Math.max(1, (unit.toMillis(delay) + this.tickMillis - 1) / this.tickMillis);
+        final Timeout<K> timeout = new Timeout<>(key, action, this.currentTick + ticks);
+        this.timeouts.put(key, timeout);
+        bucketFor(timeout.deadline).add(timeout);
+    }
+
+    /**
+     * Cancel the action pending for a key.
+     *
+     * @param key The key to cancel
+     * @return Whether an action was pending
+     */
+    public synchronized boolean cancel(K key) {
+        final Timeout<K> timeout = this.timeouts.remove(key);
+        if (timeout == null) {
+            return false;
+        }
+        bucketFor(timeout.deadline).remove(timeout);
+        return true;
+    }
+
+    /**
+     * Cancel every pending action.
+     */
+    public synchronized void clear() {
+        for (Set<Timeout<K>> bucket : this.buckets) {
+            bucket.clear();
+        }
+        this.timeouts.clear();
+    }
+
+    public synchronized boolean isScheduled(K key) {
+        return this.timeouts.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return this.timeouts.size();
+    }
+
+    /**
+     * Advance the wheel by one tick, running every action whose delay has passed. Actions run on the calling thread,
+     * outside of the wheel's lock, so they may schedule or cancel other actions.
+     *
+     * @throws RuntimeException the first exception thrown by an action, once all actions have run
+     */
+    public void tick() {
+        final List<Runnable> expired = new ArrayList<>();
+        synchronized (this) {
+            final long tick = ++this.currentTick;
+            for (Iterator<Timeout<K>> it = bucketFor(tick).iterator(); it.hasNext();) {
+                final Timeout<K> timeout = it.next();
+                if (timeout.deadline <= tick) { // Later deadlines are waiting for another turn of the wheel
+                    it.remove();
+                    this.timeouts.remove(timeout.key);
+                    expired.add(timeout.action);
+                }
+            }
+        }
+        RuntimeException failure = null;
+        for (Runnable action : expired) {
+            try {
+                action.run();
+            } catch (RuntimeException e) { // Still run the remaining actions
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Set<Timeout<K>> bucketFor(long tick) {
+        return this.buckets.get((int) (tick % this.buckets.size()));
+    }
+
+    private static class Timeout<K> {
+        private final K key;
+        private final Runnable action;
+        private final long deadline;
+
+        private Timeout(K key, Runnable action, long deadline) {
+            this.key = key;
+            this.action = action;
+            this.deadline = deadline;
+        }
+    }
+}
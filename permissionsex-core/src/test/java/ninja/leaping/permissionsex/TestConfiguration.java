@@ -0,0 +1,89 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex;
+
+import com.google.common.collect.ImmutableList;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+
+import java.util.List;
+
+/**
+ * A configuration for tests, backed by a memory data store with every optional feature disabled.
+ * Tests override the settings they depend on.
+ */
+public class TestConfiguration implements PermissionsExConfiguration {
+    @Override
+    public DataStore getDataStore(String name) {
+        return null;
+    }
+
+    @Override
+    public DataStore getDefaultDataStore() {
+        return new MemoryDataStore();
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return false;
+    }
+
+    @Override
+    public List<String> getServerTags() {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public long getCacheMemoryBudget() {
+        return 32 * 1024 * 1024;
+    }
+
+    @Override
+    public double getMemoryPressureThreshold() {
+        return 0;
+    }
+
+    @Override
+    public int getProfilerSampleRate() {
+        return 0;
+    }
+
+    @Override
+    public int getProfilerReportInterval() {
+        return 0;
+    }
+
+    @Override
+    public int getQuitGracePeriod() {
+        return 0;
+    }
+
+    @Override
+    public int getRefreshInterval() {
+        return 0;
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public PermissionsExConfiguration reload() {
+        return this;
+    }
+}
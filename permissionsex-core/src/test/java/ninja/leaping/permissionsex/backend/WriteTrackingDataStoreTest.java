@@ -0,0 +1,79 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.TestConfiguration;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteTrackingDataStoreTest extends PermissionsExTest {
+
+    @Test
+    public void testRecordsWritesInBulkOperations() throws PermissionsLoadingException, ExecutionException, InterruptedException {
+        final WriteTrackingDataStore store = newStore();
+        store.setData(SUBJECTS_GROUP, "before", permissionData(store, "before")).get();
+        store.startRecording();
+        store.performBulkOperation(bulk -> bulk.setData(SUBJECTS_GROUP, "bulk", permissionData(bulk, "bulk"))).get().get();
+        store.setData(SUBJECTS_GROUP, "direct", permissionData(store, "direct")).get();
+
+        assertEquals(ImmutableSet.of(Maps.immutableEntry(SUBJECTS_GROUP, "bulk"), Maps.immutableEntry(SUBJECTS_GROUP, "direct")), store.getWrittenSubjects());
+        assertFalse(store.isContextInheritanceWritten());
+        store.stopRecording();
+        assertTrue(store.getWrittenSubjects().isEmpty());
+    }
+
+    @Test
+    public void testRetiredStoreRedirectsWrites() throws PermissionsLoadingException, ExecutionException, InterruptedException {
+        final WriteTrackingDataStore oldStore = newStore(), newStore = newStore();
+        final CompletableFuture<Void> idle = oldStore.retire(newStore);
+        assertTrue(idle.isDone());
+
+        oldStore.setData(SUBJECTS_GROUP, "late", permissionData(oldStore, "late")).get();
+        assertFalse(oldStore.isRegistered(SUBJECTS_GROUP, "late"));
+        assertTrue(newStore.isRegistered(SUBJECTS_GROUP, "late"));
+    }
+
+    private WriteTrackingDataStore newStore() throws PermissionsLoadingException {
+        final WriteTrackingDataStore ret = new WriteTrackingDataStore(new MemoryDataStore());
+        ret.initialize(getManager());
+        return ret;
+    }
+
+    private static ImmutableSubjectData permissionData(DataStore store, String identifier) {
+        return store.getData(SUBJECTS_GROUP, identifier, null).setPermission(GLOBAL_CONTEXT, "test." + identifier, 1);
+    }
+
+    @Override
+    protected PermissionsExConfiguration populate() {
+        return new TestConfiguration();
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.memory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MemorySubjectDataTest {
+    private static final Set<Map.Entry<String, String>> WORLD = ImmutableSet.of(Maps.immutableEntry("world", "nether"));
+
+    private static ImmutableSubjectData build() {
+        return new MemorySubjectData()
+                .setPermission(WORLD, "test.permission", 1)
+                .setOption(WORLD, "prefix", "[Test]")
+                .addParent(WORLD, "group", "member")
+                .setDefaultValue(WORLD, -1);
+    }
+
+    @Test
+    public void testStructuralEquality() {
+        final ImmutableSubjectData first = build(), second = build();
+        assertNotSame(first, second);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    public void testChangedDataNotEqual() {
+        final ImmutableSubjectData data = build();
+        assertNotEquals(data, data.setPermission(WORLD, "test.permission", -1));
+        assertNotEquals(data, data.removeParent(WORLD, "group", "member"));
+        assertNotEquals(data, data.setOption(WORLD, "suffix", "!"));
+        assertEquals(data, data.setPermission(WORLD, "test.permission", 1));
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheAdmissionTest {
+    private static CacheBudget fullBudget() {
+        final CacheBudget budget = new CacheBudget(1000, task -> {});
+        budget.new Member() {
+            @Override
+            protected void trim(double fraction) {
+            }
+        }.add(1000);
+        return budget;
+    }
+
+    @Test
+    public void testEverythingAdmittedWithRoom() {
+        final CacheAdmission<String> admission = new CacheAdmission<>(new CacheBudget(1000, Runnable::run), key -> false);
+        assertTrue(admission.admit("scanned"));
+    }
+
+    @Test
+    public void testOneOffRequestsPassThroughWhenFull() {
+        final CacheAdmission<String> admission = new CacheAdmission<>(fullBudget(), key -> false);
+        assertFalse(admission.admit("scanned"));
+        assertTrue(admission.admit("scanned"));
+        assertFalse(admission.isAdmissible("other"));
+    }
+
+    @Test
+    public void testPinnedAlwaysAdmitted() {
+        final CacheAdmission<String> admission = new CacheAdmission<>(fullBudget(), "online"::equals);
+        assertTrue(admission.admit("online"));
+        assertTrue(admission.isAdmissible("online"));
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheBudgetTest {
+
+    @Test
+    public void testUsageTracksEntries() throws Exception {
+        final CacheBudget budget = new CacheBudget(1000, Runnable::run);
+        final LoadingCache<String, Integer> cache = budget.build(CacheBuilder.newBuilder(), (String key, Integer value) -> value, CacheLoader.from(Integer::parseInt));
+
+        cache.get("100");
+        cache.get("200");
+        assertEquals(300, budget.getUsedBytes());
+
+        cache.invalidate("100");
+        assertEquals(200, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testTrimProportionally() throws Exception {
+        final CacheBudget budget = new CacheBudget(1000, Runnable::run);
+        final LoadingCache<String, Integer> first = budget.build(CacheBuilder.newBuilder(), (String key, Integer value) -> value, CacheLoader.from(Integer::parseInt));
+        final LoadingCache<String, Integer> second = budget.build(CacheBuilder.newBuilder(), (String key, Integer value) -> value, CacheLoader.from(Integer::parseInt));
+
+        for (int i = 0; i < 6; ++i) {
+            first.get(String.valueOf(100 + i));
+            second.get(String.valueOf(100 + i));
+        }
+        budget.checkUsage();
+
+        assertTrue("Budget usage " + budget.getUsedBytes() + " should be within the limit", budget.getUsedBytes() <= 1000);
+        assertTrue(first.size() > 0);
+        assertTrue(second.size() > 0);
+    }
+
+    @Test
+    public void testRetainedEntriesAreNotTrimmed() throws Exception {
+        final CacheBudget budget = new CacheBudget(1000, Runnable::run);
+        final LoadingCache<String, Integer> retaining = budget.build(CacheBuilder.newBuilder().concurrencyLevel(1), (String key, Integer value) -> value,
+                CacheLoader.from(Integer::parseInt), "400"::equals);
+        final LoadingCache<String, Integer> other = budget.build(CacheBuilder.newBuilder().concurrencyLevel(1), (String key, Integer value) -> value,
+                CacheLoader.from(Integer::parseInt));
+
+        retaining.get("400");
+        retaining.get("300");
+        other.get("400");
+        budget.checkUsage();
+
+        assertTrue("Budget usage " + budget.getUsedBytes() + " should be within the limit", budget.getUsedBytes() <= 1000);
+        assertTrue(retaining.asMap().containsKey("400"));
+        assertFalse(retaining.asMap().containsKey("300"));
+    }
+
+    @Test
+    public void testTrimRemovesLeastRecentlyUsed() throws Exception {
+        final CacheBudget budget = new CacheBudget(10000, Runnable::run);
+        final LoadingCache<String, Integer> cache = budget.build(CacheBuilder.newBuilder().concurrencyLevel(1), (String key, Integer value) -> value,
+                CacheLoader.from(Integer::parseInt));
+
+        cache.get("300");
+        Thread.sleep(5);
+        cache.get("301");
+        Thread.sleep(5);
+        cache.get("302");
+        Thread.sleep(5);
+        cache.get("300");
+        budget.setMaximumBytes(900);
+
+        assertTrue(cache.asMap().containsKey("300"));
+        assertFalse(cache.asMap().containsKey("301"));
+        assertTrue(cache.asMap().containsKey("302"));
+    }
+
+    @Test
+    public void testRetainedEntryLargerThanBudgetIsKept() throws Exception {
+        final CacheBudget budget = new CacheBudget(100, Runnable::run);
+        final LoadingCache<String, Integer> cache = budget.build(CacheBuilder.newBuilder().concurrencyLevel(1), (String key, Integer value) -> value,
+                CacheLoader.from(Integer::parseInt), "500"::equals);
+
+        cache.get("500");
+        cache.get("50");
+        budget.checkUsage();
+
+        assertTrue(cache.asMap().containsKey("500"));
+        assertFalse(cache.asMap().containsKey("50"));
+    }
+}
@@ -46,6 +46,21 @@ public class CacheListenerHolderTest {
         assertEquals(0, listener.getCount());
     }
 
+    @Test
+    public void testEmptyKeysAreDropped() {
+        final CacheListenerHolder<String, Object> holder = new CacheListenerHolder<>();
+        final CountingListener listener = new CountingListener();
+        holder.call("unheard", testObj);
+        assertFalse(holder.getAllKeys().iterator().hasNext());
+
+        holder.addListener("test", listener);
+        holder.addListener("test", listener);
+        assertTrue(holder.getAllKeys().iterator().hasNext());
+
+        holder.removeListener("test", listener);
+        assertFalse(holder.getAllKeys().iterator().hasNext());
+    }
+
     private static class CountingListener implements Caching<Object> {
         private final AtomicInteger count = new AtomicInteger();
 
@@ -0,0 +1,70 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeDispatcherTest {
+
+    @Test
+    public void testChangesAreMerged() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final CacheListenerHolder<String, Integer> listeners = new CacheListenerHolder<>();
+        final ChangeDispatcher<String, Integer> dispatcher = new ChangeDispatcher<>(listeners, tasks::add);
+        final List<Integer> received = new ArrayList<>();
+        final Caching<Integer> listener = received::add;
+        listeners.addListener("test", listener);
+
+        final CompletableFuture<Void> first = dispatcher.post("test", 1);
+        final CompletableFuture<Void> second = dispatcher.post("test", 2);
+        final CompletableFuture<Void> third = dispatcher.post("test", 3);
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+        assertEquals(1, received.size());
+        assertEquals(3, (int) received.get(0));
+        assertTrue(first.isDone() && second.isDone() && third.isDone());
+    }
+
+    @Test
+    public void testChangesAfterDeliveryAreDeliveredAgain() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final CacheListenerHolder<String, Integer> listeners = new CacheListenerHolder<>();
+        final ChangeDispatcher<String, Integer> dispatcher = new ChangeDispatcher<>(listeners, tasks::add);
+        final List<Integer> received = new ArrayList<>();
+        final Caching<Integer> listener = received::add;
+        listeners.addListener("test", listener);
+
+        dispatcher.post("test", 1);
+        tasks.poll().run();
+        dispatcher.post("test", 2);
+        tasks.poll().run();
+
+        assertEquals(2, received.size());
+        assertEquals(2, (int) received.get(1));
+        assertTrue(tasks.isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ImmutablePermissionMapTest {
+
+    @Test
+    public void testCopyOf() {
+        final Map<String, Integer> source = ImmutableMap.of("test.b", 1, "test.a", -1, "test.c", 5);
+        final ImmutablePermissionMap map = ImmutablePermissionMap.copyOf(source);
+
+        assertEquals(source, map);
+        assertEquals(map, source);
+        assertEquals(source.hashCode(), map.hashCode());
+        assertEquals(ImmutableList.of("test.a", "test.b", "test.c"), ImmutableList.copyOf(map.keySet()));
+        assertEquals(-1, map.getInt("test.a", 0));
+        assertEquals(0, map.getInt("test.d", 0));
+        assertNull(map.get("test.d"));
+        assertSame(map, ImmutablePermissionMap.copyOf(map));
+    }
+
+    @Test
+    public void testWith() {
+        final ImmutablePermissionMap map = ImmutablePermissionMap.of().with("b", 1).with("a", 2).with("c", 3).with("b", 4);
+        assertEquals(ImmutableMap.of("a", 2, "b", 4, "c", 3), map);
+        assertSame(map, map.with("a", 2));
+    }
+
+    @Test
+    public void testWithout() {
+        final ImmutablePermissionMap map = ImmutablePermissionMap.copyOf(ImmutableMap.of("a", 1, "b", 2, "c", 3));
+        assertEquals(ImmutableMap.of("a", 1, "c", 3), map.without("b"));
+        assertSame(map, map.without("d"));
+        assertFalse(map.without("b").containsKey("b"));
+        assertEquals(0, map.without("a").without("b").without("c").size());
+    }
+
+    @Test
+    public void testForEachInt() {
+        final Map<String, Integer> seen = new HashMap<>();
+        final ImmutablePermissionMap map = ImmutablePermissionMap.copyOf(ImmutableMap.of("a", 1, "b", -1));
+        map.forEachInt(seen::put);
+        assertEquals(map, seen);
+    }
+
+    @Test
+    public void testLargeMapUpdates() {
+        final Random random = new Random(42);
+        final TreeMap<String, Integer> expected = new TreeMap<>();
+        ImmutablePermissionMap map = ImmutablePermissionMap.of();
+        for (int i = 0; i < 20000; ++i) {
+            final String perm = "perm." + random.nextInt(5000);
+            if (random.nextInt(4) == 0) {
+                expected.remove(perm);
+                map = map.without(perm);
+            } else {
+                final int value = random.nextInt(10) - 5;
+                expected.put(perm, value);
+                map = map.with(perm, value);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(ImmutableList.copyOf(expected.entrySet()), ImmutableList.copyOf(map.entrySet()));
+        assertEquals(expected, map);
+        assertEquals(map, ImmutablePermissionMap.copyOf(expected));
+        assertEquals(expected.hashCode(), map.hashCode());
+        for (Map.Entry<String, Integer> ent : expected.entrySet()) {
+            assertEquals(ent.getValue().intValue(), map.getInt(ent.getKey(), 100));
+        }
+    }
+
+    @Test
+    public void testUpdatesLeaveOriginalUnchanged() {
+        final Map<String, Integer> source = new HashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            source.put("perm." + i, i);
+        }
+        final ImmutablePermissionMap map = ImmutablePermissionMap.copyOf(source);
+        final ImmutablePermissionMap changed = map.with("perm.500", -1).with("perm.new", 1).without("perm.0");
+
+        assertEquals(source, map);
+        assertEquals(-1, changed.getInt("perm.500", 0));
+        assertEquals(1000, changed.size());
+        assertFalse(changed.containsKey("perm.0"));
+    }
+}
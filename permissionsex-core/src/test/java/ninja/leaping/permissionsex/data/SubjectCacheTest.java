@@ -0,0 +1,263 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.rank.RankLadder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SubjectCacheTest {
+    private static final int THREADS = 8, UPDATES_PER_THREAD = 50;
+
+    @Test
+    public void testConcurrentUpdatesAreNotLost() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final SubjectCache cache = new SubjectCache(PermissionsEx.SUBJECTS_USER, new MemoryDataStore(), new CacheBudget(1 << 20, Runnable::run), executor);
+            final List<CompletableFuture<ImmutableSubjectData>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; ++thread) {
+                final int threadId = thread;
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    CompletableFuture<ImmutableSubjectData> last = null;
+                    for (int i = 0; i < UPDATES_PER_THREAD; ++i) {
+                        final String permission = "test." + threadId + "." + i;
+                        last = cache.update("user", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, permission, 1));
+                    }
+                    return last;
+                }, executor).thenCompose(future -> future));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[results.size()])).get(30, TimeUnit.SECONDS);
+
+            assertEquals(THREADS * UPDATES_PER_THREAD, cache.getData("user", null).getPermissions(PermissionsEx.GLOBAL_CONTEXT).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReloadComparesUncachedSubjects() throws Exception {
+        final MemoryDataStore oldStore = new MemoryDataStore(), newStore = new MemoryDataStore();
+        final ImmutableSubjectData parent = oldStore.getData(SUBJECTS_GROUP, "parent", null).setPermission(GLOBAL_CONTEXT, "test.old", 1);
+        final ImmutableSubjectData unchanged = oldStore.getData(SUBJECTS_GROUP, "unchanged", null).setPermission(GLOBAL_CONTEXT, "test.same", 1);
+        oldStore.setData(SUBJECTS_GROUP, "parent", parent).get();
+        oldStore.setData(SUBJECTS_GROUP, "unchanged", unchanged).get();
+        newStore.setData(SUBJECTS_GROUP, "parent", parent.setPermission(GLOBAL_CONTEXT, "test.new", 1)).get();
+        newStore.setData(SUBJECTS_GROUP, "unchanged", unchanged).get();
+
+        final SubjectCache oldCache = new SubjectCache(SUBJECTS_GROUP, oldStore, new CacheBudget(1, Runnable::run), Runnable::run); // Too small to keep anything
+        final AtomicInteger parentChanges = new AtomicInteger(), unchangedChanges = new AtomicInteger();
+        final Caching<ImmutableSubjectData> parentListener = data -> parentChanges.incrementAndGet(),
+                unchangedListener = data -> unchangedChanges.incrementAndGet();
+        oldCache.getData("parent", parentListener);
+        oldCache.getData("unchanged", unchangedListener);
+        assertFalse(oldCache.getIfPresent("parent").isPresent());
+
+        final SubjectCache newCache = new SubjectCache(oldCache, newStore, 0);
+        assertEquals(0, parentChanges.get());
+        newCache.publishChanges();
+        assertEquals(1, parentChanges.get());
+        assertEquals(0, unchangedChanges.get());
+    }
+
+    @Test
+    public void testRefreshOnlyReloadsChangedStamps() throws Exception {
+        final StampedDataStore store = new StampedDataStore();
+        final SubjectCache cache = new SubjectCache(SUBJECTS_GROUP, store, new CacheBudget(1 << 20, Runnable::run), Runnable::run, 1);
+        final AtomicInteger changes = new AtomicInteger();
+        final Caching<ImmutableSubjectData> listener = data -> changes.incrementAndGet();
+        final ImmutableSubjectData original = originalData();
+        store.outside.put("subject", original);
+        cache.getData("subject", listener);
+        assertEquals(1, store.loads.get());
+
+        // Stamp unchanged: the data is not loaded again
+        waitForRefresh();
+        cache.getData("subject", null);
+        assertEquals(1, store.loads.get());
+
+        // Stamp changed, data equal: loaded again, but listeners are not notified
+        store.outside.put("subject", originalData());
+        store.stamps.put("subject", 1L);
+        waitForRefresh();
+        cache.getData("subject", null);
+        assertEquals(2, store.loads.get());
+        assertEquals(0, changes.get());
+
+        // Stamp and data changed: listeners see the new data
+        final ImmutableSubjectData changed = original.setPermission(GLOBAL_CONTEXT, "test.changed", 1);
+        store.outside.put("subject", changed);
+        store.stamps.put("subject", 2L);
+        waitForRefresh();
+        cache.getData("subject", null);
+        assertEquals(3, store.loads.get());
+        assertEquals(1, changes.get());
+        assertEquals(changed, cache.getData("subject", null));
+    }
+
+    @Test
+    public void testOutsideChangeAfterLocalWriteIsNoticed() throws Exception {
+        final StampedDataStore store = new StampedDataStore();
+        final SubjectCache cache = new SubjectCache(SUBJECTS_GROUP, store, new CacheBudget(1 << 20, Runnable::run), Runnable::run, 1);
+        cache.getData("subject", null);
+        cache.update("subject", data -> data.setPermission(GLOBAL_CONTEXT, "test.local", 1)).get(10, TimeUnit.SECONDS);
+
+        final ImmutableSubjectData changed = originalData().setPermission(GLOBAL_CONTEXT, "test.changed", 1);
+        store.outside.put("subject", changed);
+        store.stamps.merge("subject", 1L, Long::sum);
+        waitForRefresh();
+        cache.getData("subject", null);
+        assertEquals(changed, cache.getData("subject", null));
+    }
+
+    private static ImmutableSubjectData originalData() {
+        return new MemoryDataStore().getData(SUBJECTS_GROUP, "subject", null).setPermission(GLOBAL_CONTEXT, "test.original", 1);
+    }
+
+    private static void waitForRefresh() throws InterruptedException {
+        Thread.sleep(1100); // Just past the one second refresh interval
+    }
+
+    /**
+     * A data store whose subject data is changed from outside, with version stamps set by the test or counting writes, counting every load.
+     */
+    private static class StampedDataStore implements DataStore {
+        private final DataStore delegate = new MemoryDataStore();
+        private final Map<String, ImmutableSubjectData> outside = new ConcurrentHashMap<>();
+        private final Map<String, Long> stamps = new ConcurrentHashMap<>();
+        private final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public void initialize(PermissionsEx core) throws PermissionsLoadingException {
+            delegate.initialize(core);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public ImmutableSubjectData getData(String type, String identifier, Caching<ImmutableSubjectData> listener) {
+            loads.incrementAndGet();
+            final ImmutableSubjectData ret = outside.get(identifier);
+            return ret == null ? delegate.getData(type, identifier, listener) : ret;
+        }
+
+        @Override
+        public Map<String, Long> getVersionStamps(String type, Collection<String> identifiers) {
+            final Map<String, Long> ret = new HashMap<>();
+            for (String identifier : identifiers) {
+                ret.put(identifier, stamps.getOrDefault(identifier, 0L));
+            }
+            return ret;
+        }
+
+        @Override
+        public CompletableFuture<ImmutableSubjectData> setData(String type, String identifier, ImmutableSubjectData data) {
+            stamps.merge(identifier, 1L, Long::sum);
+            return delegate.setData(type, identifier, data);
+        }
+
+        @Override
+        public boolean isRegistered(String type, String identifier) {
+            return outside.containsKey(identifier) || delegate.isRegistered(type, identifier);
+        }
+
+        @Override
+        public Iterable<Map.Entry<String, ImmutableSubjectData>> getAll(String type) {
+            return delegate.getAll(type);
+        }
+
+        @Override
+        public Iterable<String> getAllIdentifiers(String type) {
+            return delegate.getAllIdentifiers(type);
+        }
+
+        @Override
+        public Set<String> getRegisteredTypes() {
+            return delegate.getRegisteredTypes();
+        }
+
+        @Override
+        public String serialize(ConfigurationNode node) throws PermissionsLoadingException {
+            return delegate.serialize(node);
+        }
+
+        @Override
+        public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getAll() {
+            return delegate.getAll();
+        }
+
+        @Override
+        public <T> CompletableFuture<T> performBulkOperation(Function<DataStore, T> function) {
+            return delegate.performBulkOperation(store -> function.apply(this));
+        }
+
+        @Override
+        public Iterable<String> getAllRankLadders() {
+            return delegate.getAllRankLadders();
+        }
+
+        @Override
+        public RankLadder getRankLadder(String ladder, Caching<RankLadder> listener) {
+            return delegate.getRankLadder(ladder, listener);
+        }
+
+        @Override
+        public boolean hasRankLadder(String ladder) {
+            return delegate.hasRankLadder(ladder);
+        }
+
+        @Override
+        public CompletableFuture<RankLadder> setRankLadder(String identifier, RankLadder ladder) {
+            return delegate.setRankLadder(identifier, ladder);
+        }
+
+        @Override
+        public ContextInheritance getContextInheritance(Caching<ContextInheritance> inheritance) {
+            return delegate.getContextInheritance(inheritance);
+        }
+
+        @Override
+        public CompletableFuture<ContextInheritance> setContextInheritance(ContextInheritance inheritance) {
+            return delegate.setContextInheritance(inheritance);
+        }
+    }
+}
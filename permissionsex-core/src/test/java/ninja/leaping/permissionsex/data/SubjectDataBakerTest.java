@@ -16,21 +16,16 @@
  */
 package ninja.leaping.permissionsex.data;
 
-import com.google.common.collect.ImmutableList;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.SimpleConfigurationNode;
 import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.PermissionsExTest;
-import ninja.leaping.permissionsex.backend.DataStore;
-import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.TestConfiguration;
 import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
-import ninja.leaping.permissionsex.exception.PEBKACException;
 import ninja.leaping.permissionsex.subject.CalculatedSubject;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import org.junit.Test;
 
-import java.io.IOException;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
@@ -71,38 +66,20 @@ public class SubjectDataBakerTest extends PermissionsExTest {
         assertEquals(1, calculatedSubject.getPermissions(GLOBAL_CONTEXT).get("test.permission.child"));
     }
 
-    @Override
-    protected PermissionsExConfiguration populate() {
-        return new PermissionsExConfiguration() {
-            @Override
-            public DataStore getDataStore(String name) {
-                return null;
-            }
-
-            @Override
-            public DataStore getDefaultDataStore() {
-                return new MemoryDataStore();
-            }
-
-            @Override
-            public boolean isDebugEnabled() {
-                return false;
-            }
-
-            @Override
-            public List<String> getServerTags() {
-                return ImmutableList.of();
-            }
+    @Test
+    public void testParentChangeInvalidatesChild() throws ExecutionException, PermissionsLoadingException {
+        SubjectCache groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        groupCache.set("child", groupCache.getData("child", null).addParent(GLOBAL_CONTEXT, groupCache.getType(), "parent"));
 
-            @Override
-            public void validate() throws PEBKACException {
+        CalculatedSubject calculatedChild = getManager().getCalculatedSubject(groupCache.getType(), "child");
+        assertEquals(0, calculatedChild.getPermissions(GLOBAL_CONTEXT).get("test.permission"));
 
-            }
+        groupCache.set("parent", groupCache.getData("parent", null).setPermission(GLOBAL_CONTEXT, "test.permission", 1));
+        assertEquals(1, calculatedChild.getPermissions(GLOBAL_CONTEXT).get("test.permission"));
+    }
 
-            @Override
-            public PermissionsExConfiguration reload() throws IOException {
-                return this;
-            }
-        };
+    @Override
+    protected PermissionsExConfiguration populate() {
+        return new TestConfiguration();
     }
 }
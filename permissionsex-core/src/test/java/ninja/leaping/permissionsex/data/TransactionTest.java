@@ -0,0 +1,208 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.TestConfiguration;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.rank.RankLadder;
+import ninja.leaping.permissionsex.util.Util;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class TransactionTest extends PermissionsExTest {
+    private final CountingDataStore store = new CountingDataStore();
+
+    @Test
+    public void testCommitWritesEachSubjectOnce() throws ExecutionException, InterruptedException {
+        final SubjectCache groups = getManager().getSubjects(SUBJECTS_GROUP);
+        final AtomicInteger firstChanges = new AtomicInteger(), secondChanges = new AtomicInteger();
+        groups.getData("first", null);
+        groups.addListener("first", data -> firstChanges.incrementAndGet());
+        groups.addListener("second", data -> secondChanges.incrementAndGet());
+        final int bulkOperations = store.bulkOperations.get();
+
+        getManager().beginTransaction()
+                .update(SUBJECTS_GROUP, "first", data -> data.setPermission(GLOBAL_CONTEXT, "test.one", 1))
+                .update(SUBJECTS_GROUP, "first", data -> data.setPermission(GLOBAL_CONTEXT, "test.two", 1))
+                .setData(SUBJECTS_GROUP, "second", groups.getData("second", null).setOption(GLOBAL_CONTEXT, "prefix", "test"))
+                .commit().get();
+
+        assertEquals(1, store.bulkOperations.get() - bulkOperations);
+        assertEquals(1, store.writes.count(Maps.immutableEntry(SUBJECTS_GROUP, "first")));
+        assertEquals(1, store.writes.count(Maps.immutableEntry(SUBJECTS_GROUP, "second")));
+        assertEquals(1, firstChanges.get());
+        assertEquals(1, secondChanges.get());
+        assertEquals(1, groups.getData("first", null).getPermissions(GLOBAL_CONTEXT).get("test.one").intValue());
+        assertEquals(1, groups.getData("first", null).getPermissions(GLOBAL_CONTEXT).get("test.two").intValue());
+        assertEquals("test", groups.getData("second", null).getOptions(GLOBAL_CONTEXT).get("prefix"));
+    }
+
+    @Test
+    public void testFailedCommitRestoresData() throws ExecutionException, InterruptedException {
+        final SubjectCache groups = getManager().getSubjects(SUBJECTS_GROUP);
+        groups.set("first", groups.getData("first", null).setPermission(GLOBAL_CONTEXT, "test.original", 1)).get();
+        store.failingIdentifier = "broken";
+
+        final CompletableFuture<Void> result = getManager().beginTransaction()
+                .update(SUBJECTS_GROUP, "first", data -> data.setPermission(GLOBAL_CONTEXT, "test.original", 0)
+                        .setPermission(GLOBAL_CONTEXT, "test.changed", 1))
+                .update(SUBJECTS_GROUP, "broken", data -> data.setPermission(GLOBAL_CONTEXT, "test.changed", 1))
+                .commit();
+        try {
+            result.get();
+            fail("Commit with a failing change should fail");
+        } catch (ExecutionException expected) {
+            assertEquals("Write failed", expected.getCause().getMessage());
+        }
+
+        final Map<String, Integer> permissions = groups.getData("first", null).getPermissions(GLOBAL_CONTEXT);
+        assertEquals(1, permissions.get("test.original").intValue());
+        assertFalse(permissions.containsKey("test.changed"));
+        assertFalse(store.isRegistered(SUBJECTS_GROUP, "broken"));
+    }
+
+    @Override
+    protected PermissionsExConfiguration populate() {
+        return new TestConfiguration() {
+            @Override
+            public DataStore getDefaultDataStore() {
+                return store;
+            }
+        };
+    }
+
+    /**
+     * A memory data store counting the writes to each subject, which can be made to fail writes to one subject.
+     */
+    private static class CountingDataStore implements DataStore {
+        private final DataStore delegate = new MemoryDataStore();
+        private final Multiset<Map.Entry<String, String>> writes = ConcurrentHashMultiset.create();
+        private final AtomicInteger bulkOperations = new AtomicInteger();
+        private volatile String failingIdentifier;
+
+        @Override
+        public void initialize(PermissionsEx core) throws PermissionsLoadingException {
+            delegate.initialize(core);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public ImmutableSubjectData getData(String type, String identifier, Caching<ImmutableSubjectData> listener) {
+            return delegate.getData(type, identifier, listener);
+        }
+
+        @Override
+        public CompletableFuture<ImmutableSubjectData> setData(String type, String identifier, ImmutableSubjectData data) {
+            if (data != null && identifier.equals(failingIdentifier)) {
+                return Util.failedFuture(new IllegalStateException("Write failed"));
+            }
+            writes.add(Maps.immutableEntry(type, identifier));
+            return delegate.setData(type, identifier, data);
+        }
+
+        @Override
+        public boolean isRegistered(String type, String identifier) {
+            return delegate.isRegistered(type, identifier);
+        }
+
+        @Override
+        public Iterable<Map.Entry<String, ImmutableSubjectData>> getAll(String type) {
+            return delegate.getAll(type);
+        }
+
+        @Override
+        public Iterable<String> getAllIdentifiers(String type) {
+            return delegate.getAllIdentifiers(type);
+        }
+
+        @Override
+        public Set<String> getRegisteredTypes() {
+            return delegate.getRegisteredTypes();
+        }
+
+        @Override
+        public String serialize(ConfigurationNode node) throws PermissionsLoadingException {
+            return delegate.serialize(node);
+        }
+
+        @Override
+        public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getAll() {
+            return delegate.getAll();
+        }
+
+        @Override
+        public <T> CompletableFuture<T> performBulkOperation(Function<DataStore, T> function) {
+            bulkOperations.incrementAndGet();
+            return delegate.performBulkOperation(store -> function.apply(this));
+        }
+
+        @Override
+        public Iterable<String> getAllRankLadders() {
+            return delegate.getAllRankLadders();
+        }
+
+        @Override
+        public RankLadder getRankLadder(String ladder, Caching<RankLadder> listener) {
+            return delegate.getRankLadder(ladder, listener);
+        }
+
+        @Override
+        public boolean hasRankLadder(String ladder) {
+            return delegate.hasRankLadder(ladder);
+        }
+
+        @Override
+        public CompletableFuture<RankLadder> setRankLadder(String identifier, RankLadder ladder) {
+            return delegate.setRankLadder(identifier, ladder);
+        }
+
+        @Override
+        public ContextInheritance getContextInheritance(Caching<ContextInheritance> inheritance) {
+            return delegate.getContextInheritance(inheritance);
+        }
+
+        @Override
+        public CompletableFuture<ContextInheritance> setContextInheritance(ContextInheritance inheritance) {
+            return delegate.setContextInheritance(inheritance);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.logging;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionProfilerTest {
+
+    @Test
+    public void testTopNodes() {
+        final PermissionProfiler profiler = new PermissionProfiler(1);
+        for (int i = 0; i < 100; ++i) {
+            profiler.sample("test.hot", 1);
+        }
+        for (int i = 0; i < 50; ++i) {
+            profiler.sample("test.undefined", 0);
+        }
+        for (int i = 0; i < 1000; ++i) {
+            profiler.sample("test.cold." + i, 1);
+        }
+
+        List<PermissionProfiler.NodeRate> checked = profiler.getTopNodes(2, false);
+        assertEquals(2, checked.size());
+        assertEquals("test.hot", checked.get(0).getNode());
+        assertEquals("test.undefined", checked.get(1).getNode());
+
+        List<PermissionProfiler.NodeRate> undefined = profiler.getTopNodes(1, true);
+        assertEquals("test.undefined", undefined.get(0).getNode());
+        assertTrue(undefined.get(0).getUndefinedPerSecond() > 0);
+    }
+
+    @Test
+    public void testReset() {
+        final PermissionProfiler profiler = new PermissionProfiler(1);
+        profiler.sample("test.permission", 1);
+        profiler.reset();
+        assertTrue(profiler.getTopNodes(10, false).isEmpty());
+    }
+}
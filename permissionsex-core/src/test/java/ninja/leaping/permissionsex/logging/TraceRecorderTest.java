@@ -0,0 +1,68 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.logging;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRecorderTest {
+    private static final Map.Entry<String, String> USER = Maps.immutableEntry("user", "test"),
+            OTHER = Maps.immutableEntry("user", "other");
+
+    @Test
+    public void testNothingRecordedWhenStopped() {
+        final TraceRecorder recorder = new TraceRecorder(8);
+        recorder.recordPermission(USER, ImmutableSet.of(), "test.permission", 1);
+        assertTrue(recorder.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testRingBufferKeepsNewest() {
+        final TraceRecorder recorder = new TraceRecorder(8);
+        recorder.start(null, null);
+        for (int i = 0; i < 20; ++i) {
+            recorder.recordPermission(USER, ImmutableSet.of(), "test.permission." + i, 1);
+        }
+        final List<TraceRecorder.Trace> traces = recorder.snapshot();
+        assertEquals(8, traces.size());
+        assertEquals("test.permission.12", traces.get(0).getNode());
+        assertEquals("test.permission.19", traces.get(7).getNode());
+        assertEquals(1, traces.get(7).getResult());
+    }
+
+    @Test
+    public void testFilters() {
+        final TraceRecorder recorder = new TraceRecorder(8);
+        recorder.start(USER, "test.");
+        recorder.recordPermission(USER, ImmutableSet.of(), "test.permission", 1);
+        recorder.recordPermission(OTHER, ImmutableSet.of(), "test.permission", 1);
+        recorder.recordPermission(USER, ImmutableSet.of(), "other.permission", 1);
+        recorder.recordOption(USER, ImmutableSet.of(), "Test.option", "value");
+
+        final List<TraceRecorder.Trace> traces = recorder.snapshot();
+        assertEquals(2, traces.size());
+        assertEquals(TraceRecorder.CheckType.PERMISSION, traces.get(0).getType());
+        assertEquals("value", traces.get(1).getResult());
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.CacheBudget;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveContextCacheTest {
+    private static final int ENTRY_WEIGHT = 10;
+    private static final int WINDOW_SIZE = 128;
+
+    private final CacheBudget budget = new CacheBudget(1 << 20, Runnable::run);
+    private AdaptiveContextCache<String> cache;
+
+    private static Set<Map.Entry<String, String>> world(int index) {
+        return ImmutableSet.of(Maps.immutableEntry("world", "w" + index));
+    }
+
+    private AdaptiveContextCache<String> newCache(CacheLoader<Set<Map.Entry<String, String>>, String> loader) {
+        return new AdaptiveContextCache<>(loader, (contexts, value) -> ENTRY_WEIGHT, budget);
+    }
+
+    private AdaptiveContextCache<String> newCache() {
+        return newCache(CacheLoader.from(Object::toString));
+    }
+
+    private void assertBudgetMatchesEntries() {
+        assertEquals(ENTRY_WEIGHT * cache.asMap().size(), budget.getUsedBytes());
+    }
+
+    @Test
+    public void testStartsAtInitialSize() {
+        cache = newCache();
+        assertEquals(5, cache.getMaximumSize());
+    }
+
+    @Test
+    public void testGrowsWhenMissing() throws ExecutionException {
+        cache = newCache();
+        for (int i = 0; i < WINDOW_SIZE - 1; ++i) {
+            cache.get(world(i % 20));
+        }
+        assertEquals("Size only changes at the end of a window", 5, cache.getMaximumSize());
+
+        cache.get(world((WINDOW_SIZE - 1) % 20));
+        assertEquals(20, cache.getMaximumSize());
+        assertBudgetMatchesEntries();
+    }
+
+    @Test
+    public void testShrinksWhenFewContextsUsed() throws ExecutionException {
+        cache = newCache();
+        for (int i = 0; i < 5; ++i) {
+            cache.get(world(i));
+        }
+        for (int i = 5; i < WINDOW_SIZE; ++i) {
+            cache.get(world(0));
+        }
+        assertEquals("Every slot was used in the first window", 5, cache.getMaximumSize());
+
+        for (int i = 0; i < WINDOW_SIZE; ++i) {
+            cache.get(world(0));
+        }
+        assertEquals(1, cache.getMaximumSize());
+        assertTrue(cache.asMap().containsKey(world(0)));
+        assertBudgetMatchesEntries();
+    }
+
+    @Test
+    public void testSizeStaysWithinBounds() throws ExecutionException {
+        cache = newCache();
+        for (int window = 0; window < 10; ++window) {
+            for (int i = 0; i < WINDOW_SIZE; ++i) {
+                cache.get(world(window * WINDOW_SIZE + i));
+            }
+            assertTrue(cache.getMaximumSize() <= AdaptiveContextCache.MAXIMUM_SIZE);
+        }
+        assertEquals(AdaptiveContextCache.MAXIMUM_SIZE, cache.getMaximumSize());
+
+        for (int window = 0; window < 10; ++window) {
+            for (int i = 0; i < WINDOW_SIZE; ++i) {
+                cache.get(world(0));
+            }
+            assertTrue(cache.getMaximumSize() >= AdaptiveContextCache.MINIMUM_SIZE);
+        }
+        assertEquals(AdaptiveContextCache.MINIMUM_SIZE, cache.getMaximumSize());
+        assertBudgetMatchesEntries();
+    }
+
+    @Test
+    public void testBudgetWeightReturnsToZero() throws ExecutionException {
+        cache = newCache();
+        for (int i = 0; i < 3 * WINDOW_SIZE; ++i) {
+            cache.get(world(i % 30));
+        }
+        assertTrue(budget.getUsedBytes() > 0);
+        assertBudgetMatchesEntries();
+
+        cache.invalidateAll();
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testReplaceTracksWeight() throws ExecutionException {
+        cache = newCache();
+        final String original = cache.get(world(0));
+        assertTrue(cache.replace(world(0), original, "replacement"));
+        assertEquals("replacement", cache.get(world(0)));
+        assertBudgetMatchesEntries();
+
+        cache.invalidateAll();
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testLoadFinishingDuringResizeIsKept() throws ExecutionException {
+        cache = newCache(new CacheLoader<Set<Map.Entry<String, String>>, String>() {
+            @Override
+            public String load(Set<Map.Entry<String, String>> key) throws Exception {
+                if (key.equals(world(1))) {
+                    cache.get(world(0)); // Completes the window, so the cache shrinks while this load is in progress
+                }
+                return key.toString();
+            }
+        });
+        for (int i = 0; i < WINDOW_SIZE - 1; ++i) {
+            cache.get(world(0));
+        }
+
+        assertEquals(world(1).toString(), cache.get(world(1)));
+        assertEquals(1, cache.getMaximumSize());
+        assertTrue(cache.asMap().containsKey(world(1)));
+        assertBudgetMatchesEntries();
+    }
+}
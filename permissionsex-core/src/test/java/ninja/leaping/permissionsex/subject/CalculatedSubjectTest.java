@@ -0,0 +1,60 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.subject;
+
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.TestConfiguration;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.data.SubjectCache;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ninja.leaping.permissionsex.PermissionsEx.GLOBAL_CONTEXT;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static org.junit.Assert.assertEquals;
+
+public class CalculatedSubjectTest extends PermissionsExTest {
+
+    @Test
+    public void testParentChangeDuringFirstBakeIsNotCached() throws ExecutionException, InterruptedException {
+        final SubjectCache groups = getManager().getSubjects(SUBJECTS_GROUP);
+        groups.set("child", groups.getData("child", null).addParent(GLOBAL_CONTEXT, SUBJECTS_GROUP, "parent")).get();
+        final AtomicBoolean changed = new AtomicBoolean();
+        final SubjectDataBaker racing = (subject, contexts) -> {
+            final BakedSubjectData ret = SubjectDataBaker.inheritance().bake(subject, contexts);
+            if (changed.compareAndSet(false, true)) { // The parent changes after the child read it, before the bake is cached
+                try {
+                    groups.set("parent", groups.getData("parent", null).setPermission(GLOBAL_CONTEXT, "test.permission", 1)).get();
+                } catch (InterruptedException e) {
+                    throw new ExecutionException(e);
+                }
+            }
+            return ret;
+        };
+
+        final CalculatedSubject child = new CalculatedSubject(racing, Maps.immutableEntry(SUBJECTS_GROUP, "child"), getManager());
+        assertEquals(1, child.getPermissions(GLOBAL_CONTEXT).get("test.permission"));
+    }
+
+    @Override
+    protected PermissionsExConfiguration populate() {
+        return new TestConfiguration();
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testCountsIncrements() {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        assertEquals(0, sketch.frequency("zml"));
+        sketch.increment("zml");
+        sketch.increment("zml");
+        sketch.increment("zml");
+        assertTrue(sketch.frequency("zml") >= 3);
+    }
+
+    @Test
+    public void testCountsSaturate() {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 100; ++i) {
+            sketch.increment("zml");
+        }
+        assertEquals(15, sketch.frequency("zml"));
+    }
+
+    @Test
+    public void testOldCountsAge() {
+        final FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 15; ++i) {
+            sketch.increment("popular");
+        }
+        for (int i = 0; i < 10000; ++i) {
+            sketch.increment("scan-" + i);
+        }
+        assertTrue(sketch.frequency("popular") < 15);
+    }
+}
@@ -38,6 +38,19 @@ public class NodeTreeTest {
         assertEquals(testPermissions, oldTree.asMap());
     }
 
+    @Test
+    public void testOfPrimitiveValues() {
+        final Object2IntHashMap<String> testPermissions = new Object2IntHashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+        testPermissions.put("generate", 1);
+
+        NodeTree tree = NodeTree.of(testPermissions, -1);
+        assertEquals(-1, tree.get("generate.sunset"));
+        assertEquals(1, tree.get("generate.cloud"));
+        assertEquals(-1, tree.get("destroy"));
+    }
+
     @Test
     public void testWithValue() throws Exception {
         final Map<String, Integer> testPermissions = new HashMap<>();
@@ -98,4 +111,26 @@ public class NodeTreeTest {
         assertEquals(-1, nodes.get("generate.thunderstorm.explosive"));
         assertEquals(0, nodes.get("random.perm"));
     }
+
+    @Test
+    public void testDiff() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+        testPermissions.put("generate.thunderstorm.explosive", -1);
+        final NodeTree oldTree = NodeTree.of(testPermissions);
+
+        testPermissions.put("generate.sunset", 1);
+        testPermissions.remove("generate.thunderstorm.explosive");
+        testPermissions.put("generate.snow", -1);
+        final NodeTree newTree = NodeTree.of(testPermissions);
+
+        final Map<String, Integer> expected = new HashMap<>();
+        expected.put("generate.sunset", 1);
+        expected.put("generate.thunderstorm.explosive", 0);
+        expected.put("generate.snow", -1);
+        assertEquals(expected, oldTree.diff(newTree));
+        assertEquals(0, oldTree.diff(oldTree).size());
+        assertEquals(1, oldTree.diff(oldTree.withValue("generate.rainbow", -1)).size());
+    }
 }
@@ -0,0 +1,64 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Object2IntHashMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        final Object2IntHashMap<String> map = new Object2IntHashMap<>();
+        map.put("a", 1);
+        map.put("b", 0);
+        map.put("a", -1);
+
+        assertEquals(2, map.size());
+        assertEquals(-1, map.getInt("a", 5));
+        assertEquals(0, map.getInt("b", 5));
+        assertEquals(5, map.getInt("c", 5));
+        assertTrue(map.containsKey("b"));
+        assertFalse(map.containsKey("c"));
+        assertFalse(map.containsKey(null));
+    }
+
+    @Test
+    public void testResize() {
+        final Object2IntHashMap<String> map = new Object2IntHashMap<>(2);
+        final Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            map.put("perm." + i, i);
+            expected.put("perm." + i, i);
+        }
+
+        final Map<String, Integer> seen = new HashMap<>();
+        map.forEachInt(seen::put);
+        assertEquals(expected, seen);
+        assertEquals(1000, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("perm.1"));
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PermissionMemoTest {
+
+    @Test
+    public void testGetPut() {
+        final PermissionMemo memo = new PermissionMemo();
+        assertEquals(PermissionMemo.MISSING, memo.get("test.permission", 0));
+
+        memo.put("test.permission", 0, 1);
+        memo.put("test.other", 0, -1);
+        assertEquals(1, memo.get("test.permission", 0));
+        assertEquals(-1, memo.get("test.other", 0));
+        assertEquals(1, memo.get(new String("test.permission"), 0));
+    }
+
+    @Test
+    public void testStaleStamp() {
+        final PermissionMemo memo = new PermissionMemo();
+        memo.put("test.permission", 0, 1);
+        assertEquals(PermissionMemo.MISSING, memo.get("test.permission", 1));
+
+        memo.put("test.permission", 1, -1);
+        assertEquals(-1, memo.get("test.permission", 1));
+    }
+
+    @Test
+    public void testCollisionsReplace() {
+        final PermissionMemo memo = new PermissionMemo(2);
+        for (int i = 0; i < 16; ++i) {
+            memo.put("test.permission." + i, 0, i);
+        }
+        assertEquals(15, memo.get("test.permission.15", 0));
+        int present = 0;
+        for (int i = 0; i < 16; ++i) {
+            if (memo.get("test.permission." + i, 0) != PermissionMemo.MISSING) {
+                present++;
+            }
+        }
+        assertEquals(2, present);
+    }
+}
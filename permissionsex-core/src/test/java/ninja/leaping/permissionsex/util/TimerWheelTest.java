@@ -0,0 +1,89 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testActionRunsAfterDelay() {
+        final TimerWheel<String> wheel = new TimerWheel<>(1, TimeUnit.SECONDS, 4);
+        final AtomicInteger runs = new AtomicInteger();
+        wheel.schedule("test", 3, TimeUnit.SECONDS, runs::incrementAndGet);
+
+        wheel.tick();
+        wheel.tick();
+        assertEquals(0, runs.get());
+        wheel.tick();
+        assertEquals(1, runs.get());
+        assertFalse(wheel.isScheduled("test"));
+    }
+
+    @Test
+    public void testDelayLongerThanWheel() {
+        final TimerWheel<String> wheel = new TimerWheel<>(1, TimeUnit.SECONDS, 4);
+        final AtomicInteger runs = new AtomicInteger();
+        wheel.schedule("test", 10, TimeUnit.SECONDS, runs::incrementAndGet);
+
+        for (int i = 0; i < 9; ++i) {
+            wheel.tick();
+        }
+        assertEquals(0, runs.get());
+        wheel.tick();
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        final TimerWheel<String> wheel = new TimerWheel<>(1, TimeUnit.SECONDS, 4);
+        final AtomicInteger first = new AtomicInteger(), second = new AtomicInteger();
+        wheel.schedule("cancelled", 1, TimeUnit.SECONDS, first::incrementAndGet);
+        assertTrue(wheel.cancel("cancelled"));
+        wheel.schedule("replaced", 1, TimeUnit.SECONDS, first::incrementAndGet);
+        wheel.schedule("replaced", 2, TimeUnit.SECONDS, second::incrementAndGet);
+        assertEquals(1, wheel.size());
+
+        wheel.tick();
+        wheel.tick();
+        assertEquals(0, first.get());
+        assertEquals(1, second.get());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testClear() {
+        final TimerWheel<String> wheel = new TimerWheel<>(1, TimeUnit.SECONDS, 4);
+        final AtomicInteger runs = new AtomicInteger();
+        wheel.schedule("first", 1, TimeUnit.SECONDS, runs::incrementAndGet);
+        wheel.schedule("second", 6, TimeUnit.SECONDS, runs::incrementAndGet);
+        wheel.clear();
+        assertEquals(0, wheel.size());
+
+        for (int i = 0; i < 8; ++i) {
+            wheel.tick();
+        }
+        assertEquals(0, runs.get());
+    }
+}
@@ -212,6 +212,8 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
     @Listener
     public void onPlayerJoin(final ClientConnectionEvent.Join event) {
         final String identifier = event.getTargetEntity().getIdentifier();
+        getManager().setOnline(PermissionsEx.SUBJECTS_USER, identifier, true);
+        getManager().openTransientSession(PermissionsEx.SUBJECTS_USER, identifier);
         final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_USER);
         if (cache.isRegistered(identifier)) {
             cache.update(identifier, input -> {
@@ -226,7 +228,10 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
 
     @Listener
     public void onPlayerQuit(ClientConnectionEvent.Disconnect event) {
-        getUserSubjects().uncache(event.getTargetEntity().getIdentifier());
+        final String identifier = event.getTargetEntity().getIdentifier();
+        getManager().setOnline(PermissionsEx.SUBJECTS_USER, identifier, false);
+        getManager().closeTransientSession(PermissionsEx.SUBJECTS_USER, identifier);
+        getManager().uncacheAfterGracePeriod(PermissionsEx.SUBJECTS_USER, identifier, () -> getUserSubjects().uncache(identifier));
     }
 
 
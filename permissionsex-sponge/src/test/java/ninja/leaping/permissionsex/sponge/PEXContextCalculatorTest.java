@@ -20,15 +20,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.permissionsex.PermissionsExTest;
-import ninja.leaping.permissionsex.backend.DataStore;
-import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.TestConfiguration;
 import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
-import ninja.leaping.permissionsex.exception.PEBKACException;
 import org.junit.Test;
 import org.spongepowered.api.data.manipulator.immutable.block.ImmutableLayeredData;
 import org.spongepowered.api.service.permission.context.Context;
 
-import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -54,37 +51,11 @@ public class PEXContextCalculatorTest extends PermissionsExTest {
 
     @Override
     protected PermissionsExConfiguration populate() {
-        return new PermissionsExConfiguration() {
-            @Override
-            public DataStore getDataStore(String name) {
-                return null;
-            }
-
-            @Override
-            public DataStore getDefaultDataStore() {
-                return new MemoryDataStore();
-            }
-
-            @Override
-            public boolean isDebugEnabled() {
-                return false;
-            }
-
+        return new TestConfiguration() {
             @Override
             public List<String> getServerTags() {
                 return ImmutableList.of("one", "two");
             }
-
-            @Override
-            public void validate() throws PEBKACException {
-
-            }
-
-            @Override
-            public PermissionsExConfiguration reload() throws IOException {
-                return this;
-            }
         };
     }
 }
-